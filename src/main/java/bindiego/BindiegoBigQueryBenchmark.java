@@ -0,0 +1,190 @@
+package bindiego;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.ToIntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.api.services.bigquery.model.TableSchema;
+import com.google.protobuf.Descriptors.Descriptor;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.gcp.bigquery.TableRowToStorageApiProto;
+import org.apache.beam.sdk.options.Default;
+import org.apache.beam.sdk.options.Description;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+
+import bindiego.utils.TableRowConverter;
+
+/**
+ * Worker side cost of each --bqWriteMethod on one machine, i.e. the CSV to TableRow conversion
+ * then what each method serializes per row, no BigQuery needed,
+ *
+ *   STREAMING_INSERTS: JSON row + a random insert id, unless --bqIgnoreInsertIds
+ *   FILE_LOADS: Avro record straight from the CSV, binary encoded in the files to load
+ *   STORAGE_WRITE_API: binary proto of the table schema, from a TableRow with micros timestamps
+ *
+ *   make bqbench
+ *
+ * Reports ns & bytes per row of the last round, the first ones warm up the JIT.
+ */
+public class BindiegoBigQueryBenchmark {
+
+    public interface Options extends PipelineOptions {
+        @Description("Number of rows per round")
+        @Default.Long(200000L)
+        Long getNumRows();
+        void setNumRows(Long value);
+
+        @Description("Number of rounds, only the last one is reported")
+        @Default.Integer(3)
+        Integer getRounds();
+        void setRounds(Integer value);
+
+        @Description("BigQuery schema JSON file")
+        @Default.String("schemas/dingoactions.json")
+        String getSchemaFile();
+        void setSchemaFile(String value);
+    }
+
+    public static void run(Options options) throws Exception {
+        FileSystems.setDefaultPipelineOptions(options);
+
+        final TableSchema tableSchema = BindiegoStreaming.bqTableSchema(options.getSchemaFile());
+        final TableRowConverter converter = TableRowConverter.of(tableSchema, ",");
+        final TableRowConverter microsConverter = converter.withMicrosTimestamps();
+        final Descriptor descriptor = TableRowToStorageApiProto.getDescriptorFromTableSchema(tableSchema);
+        final Schema avroSchema = TableRowConverter.avroSchema(tableSchema);
+        final GenericDatumWriter<GenericRecord> avroWriter = new GenericDatumWriter<>(avroSchema);
+        final ByteArrayOutputStream avroBytes = new ByteArrayOutputStream();
+        final ObjectMapper mapper = new ObjectMapper();
+
+        final List<String> csvLines = csvLines(options.getNumRows().intValue());
+        final List<TableRow> rows = new ArrayList<>(csvLines.size());
+
+        for (int round = 1; round <= options.getRounds(); ++round) {
+            final boolean report = round == options.getRounds();
+
+            rows.clear();
+            measure("CSV to TableRow", csvLines, report, line -> {
+                TableRow row = converter.toTableRow(line);
+                rows.add(row);
+                return 0;
+            });
+
+            measure("STREAMING_INSERTS", rows, report, row ->
+                json(mapper, row).length + UUID.randomUUID().toString().length());
+
+            measure("STREAMING_INSERTS, ignoreInsertIds", rows, report, row ->
+                json(mapper, row).length);
+
+            measure("FILE_LOADS, CSV to Avro", csvLines, report, line ->
+                avro(avroWriter, avroBytes, converter.toAvro(line, avroSchema)));
+
+            measure("STORAGE_WRITE_API, CSV to proto", csvLines, report, line ->
+                TableRowToStorageApiProto.messageFromTableRow(
+                    descriptor, microsConverter.toTableRow(line)).toByteArray().length);
+        }
+    }
+
+    // same shape as the healthy data, i.e. the payload, process_ts, dim1_val & window info
+    private static List<String> csvLines(int numRows) {
+        final long now = System.currentTimeMillis();
+        final IntervalWindow window = new IntervalWindow(new Instant(now - 300000L), Duration.standardMinutes(5));
+        final String windowInfo = new StringBuilder()
+            .append(',').append(window.toString())
+            .append(',').append(PaneInfo.NO_FIRING.toString())
+            .append(',').append(PaneInfo.NO_FIRING.getIndex())
+            .append(',').append(PaneInfo.NO_FIRING.getNonSpeculativeIndex())
+            .append(',').append(PaneInfo.NO_FIRING.isFirst())
+            .append(',').append(PaneInfo.NO_FIRING.isLast())
+            .append(',').append(PaneInfo.NO_FIRING.getTiming().toString())
+            .toString();
+
+        List<String> lines = new ArrayList<>(numRows);
+        for (int i = 0; i < numRows; ++i) {
+            final long eventTs = now - (i % 300000);
+            lines.add(new StringBuilder()
+                .append(eventTs)
+                .append(",thread-").append(i % 64)
+                .append(",pool-1-thread-").append(i % 64)
+                .append(',').append(i)
+                .append(",dim").append(i % 100)
+                .append(',').append(i % 1000)
+                .append(',').append(now)
+                .append(",dim value ").append(i % 100)
+                .append(windowInfo)
+                .append(',').append(eventTs)
+                .toString());
+        }
+
+        return lines;
+    }
+
+    private static byte[] json(ObjectMapper mapper, TableRow row) {
+        try {
+            return mapper.writeValueAsBytes(row);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int avro(GenericDatumWriter<GenericRecord> writer, ByteArrayOutputStream bytes,
+            GenericRecord record) {
+        try {
+            bytes.reset();
+            BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(bytes, null);
+            writer.write(record, encoder);
+            return bytes.size();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static <T> void measure(String name, List<T> items, boolean report, ToIntFunction<T> fn) {
+        long bytes = 0L;
+
+        final long start = System.nanoTime();
+        for (T item : items) {
+            bytes += fn.applyAsInt(item);
+        }
+        final long elapsed = System.nanoTime() - start;
+
+        if (report) {
+            logger.info(String.format("%-36s %8.1f ns/row %8.1f bytes/row",
+                name, (double) elapsed / items.size(), (double) bytes / items.size()));
+        }
+    }
+
+    public static void main(String... args) throws Exception {
+        PipelineOptionsFactory.register(Options.class);
+
+        Options options = PipelineOptionsFactory
+            .fromArgs(args)
+            .withValidation()
+            .as(Options.class);
+
+        run(options);
+    }
+
+    // Instantiate Logger
+    private static final Logger logger = LoggerFactory.getLogger(BindiegoBigQueryBenchmark.class);
+}
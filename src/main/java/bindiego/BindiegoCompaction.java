@@ -0,0 +1,383 @@
+package bindiego;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.avro.Schema;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileConstants;
+import org.apache.avro.file.DataFileStream;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.PipelineResult;
+import org.apache.beam.sdk.io.AvroIO;
+import org.apache.beam.sdk.io.FileIO;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.TextIO;
+import org.apache.beam.sdk.io.WriteFilesResult;
+import org.apache.beam.sdk.io.fs.EmptyMatchTreatment;
+import org.apache.beam.sdk.io.fs.MatchResult;
+import org.apache.beam.sdk.io.fs.MoveOptions.StandardMoveOptions;
+import org.apache.beam.sdk.io.fs.ResourceId;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.MetricNameFilter;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.metrics.MetricsFilter;
+import org.apache.beam.sdk.options.Default;
+import org.apache.beam.sdk.options.Description;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.options.Validation.Required;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.Values;
+import org.apache.beam.sdk.values.PCollection;
+
+/**
+ * Batch compaction of the windowed backup files of a finished hour or day, i.e. the many small
+ * CSV & Avro files of short windows merged into a few of about --targetFileSize each.
+ *
+ *   make compact dir=gs://bindiego/raycom/out/2021/07/01/12/
+ *
+ * The <prefix>*<csvSuffix|avroSuffix> files of each directory under --inputDir, --inputDir included,
+ * are merged into <compactedPrefix>-<run millis>-SSSSS-of-NNNNN<suffix> files of that directory,
+ * a later run doesn't overwrite the files of an earlier one. Files are never merged across
+ * directories, so Hive style partitions, e.g. dt=2021-07-01/hr=12/dim1=dim42/ of --partitionBy,
+ * stay partitions. Avro files keep the schema & codec of the originals. Steps, a run after a
+ * failure picks up where it stopped,
+ *   1. merge into the <inputDir>/.compaction/<directory>/ staging directories
+ *   2. read the merged files back, the record counts must match the originals
+ *   3. list the originals in a manifest, i.e. the staged files are verified
+ *   4. move the staged files into their directories
+ *   5. delete the originals of the manifest, then the staging directory
+ * A run finding a manifest resumes at 4, files written since aren't touched.
+ *
+ * NOTE: object stores have no atomic directory rename, readers may see both the compacted files
+ * & the originals between 4 & 5, compact hours no job reads yet. Parquet files are left as is.
+ */
+public class BindiegoCompaction {
+
+    public interface Options extends PipelineOptions {
+        @Description("Directory of a finished hour or day, e.g. gs://bucket/out/2021/07/01/12/")
+        @Required
+        String getInputDir();
+        void setInputDir(String value);
+
+        @Description("File name prefix of the files to compact.")
+        @Default.String("bindiego")
+        String getPrefix();
+        void setPrefix(String value);
+
+        @Description("CSV File name suffix.")
+        @Default.String(".csv")
+        String getCsvSuffix();
+        void setCsvSuffix(String value);
+
+        @Description("Avro File name suffix.")
+        @Default.String(".avro")
+        String getAvroSuffix();
+        void setAvroSuffix(String value);
+
+        @Description("Bytes per compacted file, from the size of the originals")
+        @Default.Long(128L * 1024 * 1024)
+        Long getTargetFileSize();
+        void setTargetFileSize(Long value);
+
+        @Description("File name prefix of the compacted files")
+        @Default.String("compacted")
+        String getCompactedPrefix();
+        void setCompactedPrefix(String value);
+    }
+
+    static final String STAGING_DIR = ".compaction/";
+    static final String MANIFEST = "_MANIFEST";
+
+    public static void run(Options options) throws Exception {
+        FileSystems.setDefaultPipelineOptions(options);
+
+        final String inputDir = options.getInputDir().endsWith("/")
+            ? options.getInputDir() : options.getInputDir() + "/";
+        final String stagingDir = inputDir + STAGING_DIR;
+        // resolved, i.e. the prefixes of the matched files
+        final String root = FileSystems.matchNewResource(inputDir, true).toString();
+        final String staging = FileSystems.matchNewResource(stagingDir, true).toString();
+        final ResourceId manifest = FileSystems.matchNewResource(stagingDir + MANIFEST, false);
+
+        if (!exists(manifest)) {
+            // leftovers of a failed run, never verified
+            delete(match(stagingDir + "**"));
+
+            final List<MatchResult.Metadata> csvFiles =
+                originals(inputDir, options.getPrefix(), options.getCsvSuffix());
+            final List<MatchResult.Metadata> avroFiles =
+                originals(inputDir, options.getPrefix(), options.getAvroSuffix());
+
+            if (csvFiles.size() + avroFiles.size() == 0) {
+                logger.info("Nothing to compact in " + inputDir);
+                return;
+            }
+
+            compact(options, root, staging, csvFiles, avroFiles);
+
+            List<MatchResult.Metadata> compacted = new ArrayList<>(csvFiles);
+            compacted.addAll(avroFiles);
+            writeManifest(manifest, compacted);
+        } else {
+            logger.info("Resuming the verified compaction of " + inputDir);
+        }
+
+        // 4. staged files in place
+        List<ResourceId> staged = new ArrayList<>();
+        List<ResourceId> targets = new ArrayList<>();
+        for (MatchResult.Metadata file : match(stagingDir + "**")) {
+            if (file.resourceId().getFilename().startsWith(options.getCompactedPrefix())) {
+                staged.add(file.resourceId());
+                targets.add(FileSystems.matchNewResource(
+                    root + file.resourceId().toString().substring(staging.length()), false));
+            }
+        }
+        FileSystems.rename(staged, targets, StandardMoveOptions.IGNORE_MISSING_FILES);
+
+        // 5. originals, then the staging directory
+        List<ResourceId> originals = readManifest(manifest);
+        FileSystems.delete(originals, StandardMoveOptions.IGNORE_MISSING_FILES);
+        delete(match(stagingDir + "**"));
+        // directories on local disks, deepest first, nothing on object stores
+        TreeSet<String> directories = new TreeSet<>(Comparator.comparing(String::length).reversed()
+            .thenComparing(Comparator.naturalOrder()));
+        for (ResourceId file : staged) {
+            String dir = file.getCurrentDirectory().toString();
+            while (dir.length() > staging.length()) {
+                directories.add(dir);
+                dir = dir.substring(0, dir.lastIndexOf('/', dir.length() - 2) + 1);
+            }
+        }
+        directories.add(staging);
+        for (String dir : directories) {
+            FileSystems.delete(Collections.singletonList(FileSystems.matchNewResource(dir, true)),
+                StandardMoveOptions.IGNORE_MISSING_FILES);
+        }
+
+        logger.info(String.format("Compacted %d files of %s into %d",
+            originals.size(), inputDir, targets.size()));
+    }
+
+    // 1. & 2., a branch per format & directory, i.e. relative to the input directory
+    private static void compact(Options options, String root, String staging,
+            List<MatchResult.Metadata> csvFiles, List<MatchResult.Metadata> avroFiles)
+            throws IOException {
+        final String compacted = options.getCompactedPrefix() + "-" + System.currentTimeMillis();
+        final Map<String, List<MatchResult.Metadata>> csvDirs = byDirectory(root, csvFiles);
+        final Map<String, List<MatchResult.Metadata>> avroDirs = byDirectory(root, avroFiles);
+
+        Pipeline p = Pipeline.create(options);
+
+        for (Map.Entry<String, List<MatchResult.Metadata>> dir : csvDirs.entrySet()) {
+            final String name = "CSV files of /" + dir.getKey();
+
+            WriteFilesResult<Void> written = p
+                .apply(name, Create.of(paths(dir.getValue())))
+                .apply("Match " + name, FileIO.matchAll())
+                .apply("Open " + name, FileIO.readMatches())
+                .apply("Read " + name, TextIO.readFiles())
+                .apply("Count " + name, ParDo.of(new CountFn<>("csv_in /" + dir.getKey())))
+                .apply("Write compacted " + name, TextIO.write()
+                    .to(staging + dir.getKey() + compacted)
+                    .withSuffix(options.getCsvSuffix())
+                    .withNumShards(numShards(dir.getValue(), options.getTargetFileSize()))
+                    .withOutputFilenames());
+
+            written.getPerDestinationOutputFilenames()
+                .apply("Compacted " + name, Values.create())
+                .apply("Match compacted " + name, FileIO.matchAll())
+                .apply("Open compacted " + name, FileIO.readMatches())
+                .apply("Read compacted " + name, TextIO.readFiles())
+                .apply("Count compacted " + name, ParDo.of(new CountFn<>("csv_out /" + dir.getKey())));
+        }
+
+        for (Map.Entry<String, List<MatchResult.Metadata>> dir : avroDirs.entrySet()) {
+            final String name = "Avro files of /" + dir.getKey();
+
+            // schema & codec of the originals, all written by the same sink
+            Schema schema;
+            String codec;
+            try (InputStream in = Channels.newInputStream(FileSystems.open(dir.getValue().get(0).resourceId()));
+                    DataFileStream<GenericRecord> avro = new DataFileStream<>(in, new GenericDatumReader<>())) {
+                schema = avro.getSchema();
+                codec = avro.getMetaString(DataFileConstants.CODEC);
+            }
+
+            WriteFilesResult<Void> written = p
+                .apply(name, Create.of(paths(dir.getValue())))
+                .apply("Match " + name, FileIO.matchAll())
+                .apply("Open " + name, FileIO.readMatches())
+                .apply("Read " + name, AvroIO.readFilesGenericRecords(schema))
+                .apply("Count " + name, ParDo.of(new CountFn<>("avro_in /" + dir.getKey())))
+                .apply("Write compacted " + name, AvroIO.writeGenericRecords(schema)
+                    .to(staging + dir.getKey() + compacted)
+                    .withSuffix(options.getAvroSuffix())
+                    .withNumShards(numShards(dir.getValue(), options.getTargetFileSize()))
+                    .withCodec(CodecFactory.fromString(null == codec ? DataFileConstants.NULL_CODEC : codec))
+                    .withOutputFilenames());
+
+            written.getPerDestinationOutputFilenames()
+                .apply("Compacted " + name, Values.create())
+                .apply("Match compacted " + name, FileIO.matchAll())
+                .apply("Open compacted " + name, FileIO.readMatches())
+                .apply("Read compacted " + name, AvroIO.readFilesGenericRecords(schema))
+                .apply("Count compacted " + name, ParDo.of(new CountFn<>("avro_out /" + dir.getKey())));
+        }
+
+        PipelineResult result = p.run();
+        result.waitUntilFinish();
+
+        for (String dir : csvDirs.keySet()) {
+            verify(result, "csv", "/" + dir);
+        }
+        for (String dir : avroDirs.keySet()) {
+            verify(result, "avro", "/" + dir);
+        }
+    }
+
+    static class CountFn<T> extends DoFn<T, T> {
+        private final Counter records;
+
+        CountFn(String name) {
+            records = Metrics.counter(BindiegoCompaction.class, name);
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext ctx) {
+            records.inc();
+            ctx.output(ctx.element());
+        }
+    }
+
+    private static void verify(PipelineResult result, String format, String dir) {
+        final long in = counter(result, format + "_in " + dir);
+        final long out = counter(result, format + "_out " + dir);
+
+        if (in != out) {
+            throw new IllegalStateException(String.format(
+                "%d %s records of %s compacted into %d, originals left untouched", in, format, dir, out));
+        }
+        logger.info(String.format("%d %s records of %s compacted", in, format, dir));
+    }
+
+    private static long counter(PipelineResult result, String name) {
+        long value = 0L;
+        for (MetricResult<Long> counter : result.metrics().queryMetrics(
+                MetricsFilter.builder()
+                    .addNameFilter(MetricNameFilter.named(BindiegoCompaction.class, name))
+                    .build()).getCounters()) {
+            value += counter.getCommitted();
+        }
+
+        return value;
+    }
+
+    // one file per target size of the originals, compressed as they are
+    private static int numShards(List<MatchResult.Metadata> files, long targetFileSize) {
+        long bytes = 0L;
+        for (MatchResult.Metadata file : files) {
+            bytes += file.sizeBytes();
+        }
+
+        return (int) Math.max(1L, (bytes + targetFileSize - 1) / targetFileSize);
+    }
+
+    // <prefix>*<suffix> under the directory, neither staged nor compacted files
+    private static List<MatchResult.Metadata> originals(String dir, String prefix, String suffix)
+            throws IOException {
+        return match(dir + "**" + suffix).stream()
+            .filter(file -> file.resourceId().getFilename().startsWith(prefix))
+            .filter(file -> !file.resourceId().toString().contains("/" + STAGING_DIR))
+            .collect(Collectors.toList());
+    }
+
+    // files by their directory relative to the root, e.g. "" or "dt=2021-07-01/hr=12/"
+    private static Map<String, List<MatchResult.Metadata>> byDirectory(String root,
+            List<MatchResult.Metadata> files) {
+        return files.stream().collect(Collectors.groupingBy(
+            file -> file.resourceId().getCurrentDirectory().toString().substring(root.length()),
+            TreeMap::new, Collectors.toList()));
+    }
+
+    private static List<MatchResult.Metadata> match(String spec) throws IOException {
+        MatchResult match = FileSystems.match(spec, EmptyMatchTreatment.ALLOW);
+        return MatchResult.Status.OK == match.status() ? match.metadata() : Collections.emptyList();
+    }
+
+    private static boolean exists(ResourceId file) throws IOException {
+        return MatchResult.Status.OK == FileSystems.match(
+            Collections.singletonList(file.toString())).get(0).status();
+    }
+
+    private static void delete(List<MatchResult.Metadata> files) throws IOException {
+        FileSystems.delete(
+            files.stream().map(MatchResult.Metadata::resourceId).collect(Collectors.toList()),
+            StandardMoveOptions.IGNORE_MISSING_FILES);
+    }
+
+    private static List<String> paths(List<MatchResult.Metadata> files) {
+        return files.stream()
+            .map(file -> file.resourceId().toString())
+            .collect(Collectors.toList());
+    }
+
+    private static void writeManifest(ResourceId manifest, List<MatchResult.Metadata> files)
+            throws IOException {
+        try (OutputStream out = Channels.newOutputStream(FileSystems.create(manifest, "text/plain"))) {
+            for (String path : paths(files)) {
+                out.write((path + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static List<ResourceId> readManifest(ResourceId manifest) throws IOException {
+        List<ResourceId> files = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(
+                Channels.newReader(FileSystems.open(manifest), StandardCharsets.UTF_8.name()))) {
+            for (String path = in.readLine(); null != path; path = in.readLine()) {
+                if (!path.isEmpty()) {
+                    files.add(FileSystems.matchNewResource(path, false));
+                }
+            }
+        }
+
+        return files;
+    }
+
+    public static void main(String... args) throws Exception {
+        PipelineOptionsFactory.register(Options.class);
+
+        Options options = PipelineOptionsFactory
+            .fromArgs(args)
+            .withValidation()
+            .as(Options.class);
+
+        run(options);
+    }
+
+    // Instantiate Logger
+    private static final Logger logger = LoggerFactory.getLogger(BindiegoCompaction.class);
+}
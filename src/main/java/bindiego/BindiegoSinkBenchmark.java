@@ -0,0 +1,237 @@
+package bindiego;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.cloud.bigtable.hbase.BigtableConfiguration;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.PipelineResult;
+import org.apache.beam.sdk.io.GenerateSequence;
+import org.apache.beam.sdk.metrics.DistributionResult;
+import org.apache.beam.sdk.metrics.MetricNameFilter;
+import org.apache.beam.sdk.metrics.MetricQueryResults;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.MetricsFilter;
+import org.apache.beam.sdk.options.Default;
+import org.apache.beam.sdk.options.Description;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.ParDo;
+
+import bindiego.io.BigtableSchema;
+import bindiego.io.BigtableWriteIO;
+import bindiego.io.HBaseWriteIO;
+import bindiego.io.MutationSink;
+import bindiego.io.RowKeyStrategy;
+
+/**
+ * Write throughput of the tall table sink on one machine, to try out row key & batching
+ * changes before paying for a real cluster.
+ *
+ * Against the Bigtable emulator,
+ *   gcloud beta emulators bigtable start &
+ *   $(gcloud beta emulators bigtable env-init)
+ *   make btbench
+ *
+ * Against a local / standalone HBase, add --hbaseZkQuorum=localhost:2181
+ *
+ * The table is created with the tall table column families if it doesn't exist.
+ */
+public class BindiegoSinkBenchmark {
+
+    public interface Options extends PipelineOptions {
+        @Description("Number of rows to write")
+        @Default.Long(1000000L)
+        Long getBenchRows();
+        void setBenchRows(Long value);
+
+        @Description("Number of distinct dim1, i.e. how hot a dim1 is")
+        @Default.Integer(100)
+        Integer getDim1Cardinality();
+        void setDim1Cardinality(Integer value);
+
+        @Description("Bigtable project id, anything goes for the emulator")
+        @Default.String("raycom-bench")
+        String getBtProject();
+        void setBtProject(String value);
+
+        @Description("Bigtable instance id, anything goes for the emulator")
+        @Default.String("raycom-bench")
+        String getBenchBtInstanceId();
+        void setBenchBtInstanceId(String value);
+
+        @Description("Table to write")
+        @Default.String("btbench")
+        String getBtTableId();
+        void setBtTableId(String value);
+
+        @Description("Number of salt buckets prefixed to the row keys, 1 for no salt")
+        @Default.Integer(1)
+        Integer getBtSaltBuckets();
+        void setBtSaltBuckets(Integer value);
+
+        @Description("Max mutations per Bigtable bulk request, 0 for the client default")
+        @Default.Integer(0)
+        Integer getBtBulkMaxRowKeyCount();
+        void setBtBulkMaxRowKeyCount(Integer value);
+
+        @Description("Max bytes per Bigtable bulk request, 0 for the client default")
+        @Default.Long(0L)
+        Long getBtBulkMaxRequestBytes();
+        void setBtBulkMaxRequestBytes(Long value);
+
+        @Description("Max in-flight Bigtable bulk requests per worker, 0 for the client default")
+        @Default.Integer(0)
+        Integer getBtMaxInflightRpcs();
+        void setBtMaxInflightRpcs(Integer value);
+
+        @Description("ZooKeeper quorum of an HBase cluster, benchmark HBase instead of Bigtable if set")
+        @Default.String("")
+        String getHbaseZkQuorum();
+        void setHbaseZkQuorum(String value);
+
+        @Description("HBase client write buffer in bytes, 0 for the client default")
+        @Default.Long(0L)
+        Long getHbaseWriteBufferSize();
+        void setHbaseWriteBufferSize(Long value);
+    }
+
+    public static void run(Options options) throws IOException {
+        final boolean hbase = !options.getHbaseZkQuorum().isEmpty();
+
+        final MutationSink sink;
+        if (hbase) {
+            HBaseWriteIO.Write hbaseWrite = HBaseWriteIO.write()
+                .withZookeeperQuorum(options.getHbaseZkQuorum());
+            if (options.getHbaseWriteBufferSize() > 0) {
+                hbaseWrite = hbaseWrite.withWriteBufferSize(options.getHbaseWriteBufferSize());
+            }
+            sink = hbaseWrite;
+
+            try (Connection connection = ConnectionFactory.createConnection(hbaseWrite.hbaseConf())) {
+                createTableIfNotExists(connection, options.getBtTableId());
+            }
+        } else {
+            BigtableWriteIO.Write btWrite = BigtableWriteIO.write()
+                .withInstance(options.getBtProject(), options.getBenchBtInstanceId());
+            if (options.getBtBulkMaxRowKeyCount() > 0) {
+                btWrite = btWrite.withBulkMaxRowKeyCount(options.getBtBulkMaxRowKeyCount());
+            }
+            if (options.getBtBulkMaxRequestBytes() > 0) {
+                btWrite = btWrite.withBulkMaxRequestSizeBytes(options.getBtBulkMaxRequestBytes());
+            }
+            if (options.getBtMaxInflightRpcs() > 0) {
+                btWrite = btWrite.withMaxInflightRpcs(options.getBtMaxInflightRpcs());
+            }
+            sink = btWrite;
+
+            try (Connection connection = BigtableConfiguration.connect(
+                    options.getBtProject(), options.getBenchBtInstanceId())) {
+                createTableIfNotExists(connection, options.getBtTableId());
+            }
+        }
+
+        final RowKeyStrategy rowKeys = RowKeyStrategy.saltBuckets(options.getBtSaltBuckets());
+        final int dim1Cardinality = options.getDim1Cardinality();
+
+        Pipeline p = Pipeline.create(options);
+
+        p.apply("Generate sequence", GenerateSequence.from(0).to(options.getBenchRows()))
+            .apply("Produce tall table rows", ParDo.of(new DoFn<Long, Mutation>() {
+                @ProcessElement
+                public void processElement(ProcessContext ctx) {
+                    final long seq = ctx.element();
+                    final long processTs = System.currentTimeMillis();
+                    final String dim1 = "dim" + (seq % dim1Cardinality);
+
+                    // same shape as the tall table rows of the streaming job
+                    ctx.output(
+                        new Put(rowKeys.apply(BigtableSchema.tallRowKey(dim1, processTs + seq)))
+                            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.NUM_RECORDS,
+                                processTs, Bytes.toBytes(seq))
+                            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.SUM,
+                                processTs, Bytes.toBytes(seq * 2))
+                            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.MIN,
+                                processTs, Bytes.toBytes(seq))
+                            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.MAX,
+                                processTs, Bytes.toBytes(seq * 3))
+                            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.AVG,
+                                processTs, Bytes.toBytes(seq * 1.5D))
+                            .addColumn(BigtableSchema.WINDOW_INFO_CF, BigtableSchema.PANE_IDX,
+                                Bytes.toBytes(0L))
+                            .addColumn(BigtableSchema.WINDOW_INFO_CF, BigtableSchema.WIN_START_TS,
+                                Bytes.toBytes(processTs))
+                            .addColumn(BigtableSchema.WINDOW_INFO_CF, BigtableSchema.WIN_END_TS,
+                                Bytes.toBytes(processTs)));
+                }}))
+            .apply("Write rows", sink.writeTo(options.getBtTableId()));
+
+        final long start = System.currentTimeMillis();
+        PipelineResult result = p.run();
+        result.waitUntilFinish();
+        final long elapsed = Math.max(1L, System.currentTimeMillis() - start);
+
+        report(result, (hbase ? "hbase." : "bigtable.") + options.getBtTableId(),
+            options.getBenchRows(), elapsed);
+    }
+
+    private static void createTableIfNotExists(Connection connection, String tableId)
+            throws IOException {
+        try (Admin admin = connection.getAdmin()) {
+            TableName tableName = TableName.valueOf(tableId);
+            if (!admin.tableExists(tableName)) {
+                admin.createTable(new HTableDescriptor(tableName)
+                    .addFamily(new HColumnDescriptor(BigtableSchema.STATS_CF))
+                    .addFamily(new HColumnDescriptor(BigtableSchema.WINDOW_INFO_CF)));
+            }
+        }
+    }
+
+    private static void report(PipelineResult result, String namespace, long numRows, long elapsedMs) {
+        MetricQueryResults metrics = result.metrics().queryMetrics(
+            MetricsFilter.builder()
+                .addNameFilter(MetricNameFilter.inNamespace(namespace))
+                .build());
+
+        logger.info(String.format("%d rows in %d ms, %.1f rows/s",
+            numRows, elapsedMs, numRows * 1000D / elapsedMs));
+
+        for (MetricResult<Long> counter : metrics.getCounters()) {
+            logger.info(counter.getName() + ": " + counter.getAttempted());
+        }
+
+        for (MetricResult<DistributionResult> distribution : metrics.getDistributions()) {
+            DistributionResult dist = distribution.getAttempted();
+            logger.info(String.format("%s: count %d, mean %.2f, min %d, max %d",
+                distribution.getName(), dist.getCount(), dist.getMean(), dist.getMin(), dist.getMax()));
+        }
+    }
+
+    public static void main(String... args) throws IOException {
+        PipelineOptionsFactory.register(Options.class);
+
+        Options options = PipelineOptionsFactory
+            .fromArgs(args)
+            .withValidation()
+            .as(Options.class);
+
+        run(options);
+    }
+
+    // Instantiate Logger
+    private static final Logger logger = LoggerFactory.getLogger(BindiegoSinkBenchmark.class);
+}
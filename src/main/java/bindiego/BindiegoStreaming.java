@@ -4,12 +4,16 @@ import  bindiego.BindiegoStreamingOptions;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.concurrent.TimeUnit;
 import java.sql.*;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 // Import SLF4J packages.
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -22,15 +26,12 @@ import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.api.services.bigquery.model.TableSchema;
 import com.google.api.services.bigquery.model.TableReference;
 import com.google.api.services.bigquery.model.TableRow;
-import com.google.api.services.bigquery.model.Clustering;
-import com.google.api.services.bigquery.model.TimePartitioning;
 
-import com.google.cloud.bigtable.beam.CloudBigtableIO;
-import com.google.cloud.bigtable.beam.CloudBigtableTableConfiguration;
 
 import org.apache.beam.sdk.Pipeline;
 import org.apache.beam.sdk.io.TextIO;
 import org.apache.beam.sdk.io.AvroIO;
+import org.apache.beam.sdk.io.gcp.bigquery.AvroWriteRequest;
 import org.apache.beam.sdk.io.gcp.bigquery.BigQueryIO;
 import org.apache.beam.sdk.io.gcp.bigquery.BigQueryIO.Write.CreateDisposition;
 import org.apache.beam.sdk.io.gcp.bigquery.BigQueryIO.Write.WriteDisposition;
@@ -38,9 +39,11 @@ import org.apache.beam.sdk.io.gcp.bigquery.InsertRetryPolicy;
 import org.apache.beam.sdk.io.gcp.pubsub.PubsubIO;
 import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
 import org.apache.beam.sdk.io.FileBasedSink;
+import org.apache.beam.sdk.io.FileIO;
 import org.apache.beam.sdk.io.FileSystems;
 import org.apache.beam.sdk.io.fs.ResourceId;
 import org.apache.beam.sdk.io.jdbc.JdbcIO;
+import org.apache.beam.sdk.io.parquet.ParquetIO;
 import org.apache.beam.sdk.io.GenerateSequence;
 import org.apache.beam.sdk.metrics.Counter;
 import org.apache.beam.sdk.metrics.Distribution;
@@ -53,6 +56,7 @@ import org.apache.beam.sdk.options.StreamingOptions;
 import org.apache.beam.sdk.options.Validation.Required;
 import org.apache.beam.sdk.options.ValueProvider;
 import org.apache.beam.sdk.options.ValueProvider.NestedValueProvider;
+import org.apache.beam.sdk.options.ValueProvider.StaticValueProvider;
 import org.apache.beam.sdk.transforms.Count;
 import org.apache.beam.sdk.transforms.Sum;
 import org.apache.beam.sdk.transforms.Min;
@@ -69,14 +73,17 @@ import org.apache.beam.sdk.transforms.SimpleFunction;
 import org.apache.beam.sdk.transforms.windowing.Window;
 import org.apache.beam.sdk.transforms.windowing.FixedWindows;
 import org.apache.beam.sdk.transforms.windowing.AfterEach;
+import org.apache.beam.sdk.transforms.windowing.AfterFirst;
 import org.apache.beam.sdk.transforms.windowing.AfterProcessingTime;
 import org.apache.beam.sdk.transforms.windowing.AfterWatermark;
 import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
 import org.apache.beam.sdk.transforms.windowing.Repeatedly;
 import org.apache.beam.sdk.transforms.windowing.AfterPane;
 import org.apache.beam.sdk.transforms.windowing.Window.ClosingBehavior;
 import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
+import org.apache.beam.sdk.transforms.windowing.Trigger;
 import org.apache.beam.sdk.transforms.ToString;
 import org.apache.beam.sdk.transforms.WithTimestamps;
 import org.apache.beam.sdk.transforms.GroupByKey;
@@ -88,6 +95,7 @@ import org.apache.beam.sdk.values.PCollectionTuple;
 import org.apache.beam.sdk.values.TupleTag;
 import org.apache.beam.sdk.values.TupleTagList;
 import org.apache.beam.sdk.values.PCollectionView;
+import org.apache.beam.sdk.values.POutput;
 import org.apache.beam.sdk.coders.AvroCoder;
 import org.apache.beam.sdk.coders.KvCoder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
@@ -102,7 +110,25 @@ import org.joda.time.Instant;
 import org.codehaus.jackson.map.ObjectMapper;
 
 import bindiego.io.WindowedFilenamePolicy;
+import bindiego.io.BigQueryDestinations;
+import bindiego.io.BigtableSchema;
+import bindiego.io.BigtableCounterIO;
+import bindiego.io.BigtableWriteIO;
+import bindiego.io.HBaseWriteIO;
+import bindiego.io.HivePartitions;
+import bindiego.io.MutationSink;
+import bindiego.io.RowKeyStrategy;
+import bindiego.io.SizeBasedSharding;
+import bindiego.analytics.DistinctSketch;
+import bindiego.analytics.IncrementalAggregator;
+import bindiego.analytics.QuantileSketch;
+import bindiego.analytics.RollupStats;
+import bindiego.analytics.SlidingAggregator;
+import bindiego.analytics.TopKSketch;
 import bindiego.utils.DurationUtils;
+import bindiego.utils.StreamingDedup;
+import bindiego.utils.TableRowConverter;
+import bindiego.utils.WindowInfoCache;
 import bindiego.utils.SchemaParser;
 import bindiego.io.ElasticsearchIO;
 
@@ -162,6 +188,66 @@ public class BindiegoStreaming {
         private final PCollectionView<Map<String, String>> lookupTable;
     }
 
+    /**
+     * CSV with window information to BigQuery TableRow, @see AppendWindowInfo
+     *
+     * Columns typed by the --bqSchema, in its order, compiled once per DoFn instance
+     */
+    public static class PrepareTableRow extends DoFn<String, TableRow> {
+        private final ValueProvider<String> bqSchema;
+        private final String delimiter;
+        private final boolean microsTimestamps;
+
+        private transient TableRowConverter converter;
+
+        /** @param microsTimestamps TIMESTAMP in micros, i.e. for the Storage Write API */
+        public PrepareTableRow(ValueProvider<String> bqSchema, String delimiter,
+                boolean microsTimestamps) {
+            this.bqSchema = bqSchema;
+            this.delimiter = delimiter;
+            this.microsTimestamps = microsTimestamps;
+        }
+
+        @Setup
+        public void setup() {
+            converter = TableRowConverter.of(bqTableSchema(bqSchema.get()), delimiter);
+            if (microsTimestamps) {
+                converter = converter.withMicrosTimestamps();
+            }
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext ctx) {
+            ctx.output(converter.toTableRow(ctx.element()));
+        }
+    }
+
+    /**
+     * CSV with window information to the Avro records of BigQuery load jobs, i.e. no TableRow
+     * nor JSON in between, compiled on first use
+     */
+    public static class PrepareBigQueryAvro
+            implements SerializableFunction<AvroWriteRequest<String>, GenericRecord> {
+        private final ValueProvider<String> bqSchema;
+        private final String delimiter;
+
+        private transient TableRowConverter converter;
+
+        public PrepareBigQueryAvro(ValueProvider<String> bqSchema, String delimiter) {
+            this.bqSchema = bqSchema;
+            this.delimiter = delimiter;
+        }
+
+        @Override
+        public GenericRecord apply(AvroWriteRequest<String> request) {
+            if (null == converter) {
+                converter = TableRowConverter.of(bqTableSchema(bqSchema.get()), delimiter);
+            }
+
+            return converter.toAvro(request.getElement(), request.getSchema());
+        }
+    }
+
     /**
      * Append window information to the end of csv string/row
      * <...>, window, pane_info, pane_idx, pane_nonspeculative_idx, 
@@ -170,6 +256,28 @@ public class BindiegoStreaming {
      * FIXME: you may want to handle errors here
      */
     public static class AppendWindowInfo extends DoFn<String, String> {
+        // ",window,pane_info,...,pane_timing", the same for all the elements of a pane
+        private transient WindowInfoCache<String> windowInfo;
+
+        @Setup
+        public void setup() {
+            windowInfo = new WindowInfoCache<>((window, pane) ->
+                new StringBuilder()
+                    .append(',').append(window.toString())
+                    .append(',').append(pane.toString())
+                    .append(',').append(pane.getIndex())
+                    .append(',').append(pane.getNonSpeculativeIndex())
+                    .append(',').append(pane.isFirst())
+                    .append(',').append(pane.isLast())
+                    .append(',').append(pane.getTiming().toString())
+                    .toString());
+        }
+
+        @StartBundle
+        public void startBundle() {
+            windowInfo.clear();
+        }
+
         @ProcessElement
         public void processElement(ProcessContext ctx, IntervalWindow window)
                 throws IllegalArgumentException {
@@ -178,13 +286,7 @@ public class BindiegoStreaming {
 
             try {
                 sb.append(ctx.element())
-                    .append(',').append(window.toString())
-                    .append(',').append(ctx.pane().toString())
-                    .append(',').append(ctx.pane().getIndex())
-                    .append(',').append(ctx.pane().getNonSpeculativeIndex())
-                    .append(',').append(ctx.pane().isFirst())
-                    .append(',').append(ctx.pane().isLast())
-                    .append(',').append(ctx.pane().getTiming().toString())
+                    .append(windowInfo.get(window, ctx.pane()))
                     .append(',').append(ctx.timestamp().getMillis());
 
                 ctx.output(sb.toString());
@@ -217,51 +319,68 @@ public class BindiegoStreaming {
             this.delimiter = delimiter;
         }
 
-        @ProcessElement
-        public void processElement(ProcessContext ctx) throws IllegalArgumentException {
-            String[] csvData = ctx.element().split(delimiter);
-           
-            Schema schema = new Schema.Parser().parse(schemaJson);
+        /** CSV column to the value of an Avro field */
+        private interface FieldWriter {
+            Object write(String value);
+        }
+
+        // parsed & compiled once per DoFn instance, not per element
+        @Setup
+        public void setup() {
+            schema = new Schema.Parser().parse(schemaJson);
 
-            // Create Avro Generic Record
-            GenericRecord genericRecord = new GenericData.Record(schema);
             List<Schema.Field> fields = schema.getFields();
+            writers = new FieldWriter[fields.size()];
 
             for (int index = 0; index < fields.size(); ++index) {
                 Schema.Field field = fields.get(index);
                 String fieldType = field.schema().getType().getName().toLowerCase();
 
-                // REVISIT: suprise, java can switch string :)
                 switch (fieldType) {
                     case "string":
-                        genericRecord.put(field.name(), csvData[index]);
+                        writers[index] = value -> value;
                         break;
                     case "boolean":
-                        genericRecord.put(field.name(), Boolean.valueOf(csvData[index]));
+                        writers[index] = Boolean::valueOf;
                         break;
                     case "int":
-                        genericRecord.put(field.name(), Integer.valueOf(csvData[index]));
+                        writers[index] = Integer::valueOf;
                         break;
                     case "long":
-                        genericRecord.put(field.name(), Long.valueOf(csvData[index]));
+                        writers[index] = Long::valueOf;
                         break;
                     case "float":
-                        genericRecord.put(field.name(), Float.valueOf(csvData[index]));
+                        writers[index] = Float::valueOf;
                         break;
                     case "double":
-                        genericRecord.put(field.name(), Double.valueOf(csvData[index]));
+                        writers[index] = Double::valueOf;
                         break;
                     default:
                         throw new IllegalArgumentException("Field type " 
                             + fieldType + " is not supported.");
                 }
             }
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext ctx) throws IllegalArgumentException {
+            String[] csvData = ctx.element().split(delimiter);
+
+            // Create Avro Generic Record, fields by position
+            GenericRecord genericRecord = new GenericData.Record(schema);
+
+            for (int index = 0; index < writers.length; ++index) {
+                genericRecord.put(index, writers[index].write(csvData[index]));
+            }
 
             ctx.output(genericRecord);
         }
 
         private String schemaJson;
         private String delimiter;
+
+        private transient Schema schema;
+        private transient FieldWriter[] writers;
     }
 
     // Read JDBC lookup table
@@ -440,6 +559,18 @@ public class BindiegoStreaming {
             // this usually used with TextIO 
             // .apply("Set event timestamp value", WithTimestamps.of(new SetTimestamp())); 
 
+        // drop the events republished under a new message id, before the fan-out to all the sinks
+        PCollection<String> events = processedData.get(STR_OUT);
+        if (!options.getDedupHorizon().isEmpty()) {
+            final int[] dedupColumns = Arrays.stream(options.getDedupColumns().split(","))
+                .map(String::trim).mapToInt(Integer::parseInt).toArray();
+
+            events = events.apply("Deduplicate events",
+                StreamingDedup.of(
+                    StreamingDedup.csvColumns(options.getCsvDelimiter(), dedupColumns),
+                    DurationUtils.parseDuration(options.getDedupHorizon())));
+        }
+
         /* Realtime data analysis */
         // HBase/BigTable or Elasticsearch
         //
@@ -459,7 +590,7 @@ public class BindiegoStreaming {
          *   We should end up with timing for: EARLY, ON_TIME & LATE
          */
         /*
-        PCollection<String> healthData = processedData.get(STR_OUT)
+        PCollection<String> healthData = events
             .apply(options.getWindowSize() + " window for healthy data",
                 Window.<String>into(FixedWindows.of(DurationUtils.parseDuration(options.getWindowSize())))
                     .triggering(
@@ -483,7 +614,7 @@ public class BindiegoStreaming {
         */
 
         /* REVISIT: A terse approach */
-        PCollection<String> healthData = processedData.get(STR_OUT)
+        PCollection<String> healthData = events
             .apply(options.getWindowSize() + " window for healthy data",
                 Window.<String>into(FixedWindows.of(DurationUtils.parseDuration(options.getWindowSize())))
                     .triggering(
@@ -492,9 +623,7 @@ public class BindiegoStreaming {
                                 AfterProcessingTime
                                     .pastFirstElementInPane() 
                                     .plusDelayOf(DurationUtils.parseDuration(options.getEarlyFiringPeriod())))
-                            .withLateFirings(
-                                AfterPane.elementCountAtLeast(
-                                    options.getLateFiringCount().intValue()))
+                            .withLateFirings(lateFirings(options))
                     )
                     .discardingFiredPanes() // e.g. .accumulatingFiredPanes() etc.
                     .withAllowedLateness(DurationUtils.parseDuration(options.getAllowedLateness()),
@@ -511,126 +640,170 @@ public class BindiegoStreaming {
         // we use dim1 as key to do the analysis
         // REVISIT: we applied the same windowing functions here, it could/should be different tho
 
-        // window/panes accumulating mode, good for tall table
-        processedData.get(STR_OUT)
-            .apply(options.getWindowSize() 
-                    + " window for healthy data in KV for real time analysis, accumulating mode",
-                Window.<String>into(FixedWindows.of(DurationUtils.parseDuration(options.getWindowSize())))
-                    .triggering(
-                        AfterWatermark.pastEndOfWindow()
-                            .withEarlyFirings(
-                                AfterProcessingTime
-                                    .pastFirstElementInPane() 
-                                    .plusDelayOf(DurationUtils.parseDuration(options.getEarlyFiringPeriod())))
-                            .withLateFirings(
-                                AfterPane.elementCountAtLeast(
-                                    options.getLateFiringCount().intValue()))
-                    )
-                    .accumulatingFiredPanes()
-                    .withAllowedLateness(DurationUtils.parseDuration(options.getAllowedLateness()),
-                        ClosingBehavior.FIRE_IF_NON_EMPTY))
-            .apply("Produce KV for aggregation operations", // produce PCollection<KV<String, String>>
-                ParDo.of(new ProduceKv(options.getCsvDelimiter())))
-            .apply("group by dim1 for analysis", // produce PCollection<KV<String, Iterable<String>>>
-                GroupByKey.create())
-            .apply("Produce HBase/Bigtable tall table",
-                ParDo.of(new DoFn<KV<String, Iterable<String>>, Put>() {
-                    @ProcessElement
-                    public void processElement(ProcessContext ctx) {
-                        final long processTs = System.currentTimeMillis();
-
-                        // row key related value
-                        StringBuilder sb = new StringBuilder(ctx.element().getKey());
+        // salted row keys if asked, spread hot dim1 & latest windows across tablets
+        final RowKeyStrategy btRowKeys = RowKeyStrategy.saltBuckets(options.getBtSaltBuckets());
+
+        // approximate distinct count of a column, i.e. thread_id, mergeable across windows
+        final int hllPrecision = options.getBtHllPrecision();
+        checkArgument(hllPrecision >= DistinctSketch.MIN_PRECISION
+                && hllPrecision <= DistinctSketch.MAX_PRECISION,
+            "--btHllPrecision must be in [%s, %s]",
+            DistinctSketch.MIN_PRECISION, DistinctSketch.MAX_PRECISION);
+        final int distinctColumn = options.getBtDistinctColumn();
+
+        // bulk mutation batching & flow control, client defaults unless asked
+        BigtableWriteIO.Write btWrite = BigtableWriteIO.write()
+            .withInstance(options.getProject(), options.getBtInstanceId());
+        if (options.getBtBulkMaxRowKeyCount() > 0) {
+            btWrite = btWrite.withBulkMaxRowKeyCount(options.getBtBulkMaxRowKeyCount());
+        }
+        if (options.getBtBulkMaxRequestBytes() > 0) {
+            btWrite = btWrite.withBulkMaxRequestSizeBytes(options.getBtBulkMaxRequestBytes());
+        }
+        if (options.getBtMaxInflightRpcs() > 0) {
+            btWrite = btWrite.withMaxInflightRpcs(options.getBtMaxInflightRpcs());
+        }
+        if (options.getBtThrottlingThresholdMs() > 0) {
+            btWrite = btWrite.withThrottling(options.getBtThrottlingThresholdMs());
+        }
 
-                        // statistical data, choose the appropreate data types according to your case
-                        final byte[] stats_cf = Bytes.toBytes("stats");
-                        Integer count = 0;
-                        Integer sum = 0;
-                        Integer min = Integer.MAX_VALUE;
-                        Integer max = Integer.MIN_VALUE;
-                        Float avg = 0F;
+        // native HBase instead of Bigtable if there is a quorum
+        final MutationSink btSink;
+        if (options.getHbaseZkQuorum().isEmpty()) {
+            btSink = btWrite;
+        } else {
+            HBaseWriteIO.Write hbaseWrite = HBaseWriteIO.write()
+                .withZookeeperQuorum(options.getHbaseZkQuorum());
+            if (options.getHbaseWriteBufferSize() > 0) {
+                hbaseWrite = hbaseWrite.withWriteBufferSize(options.getHbaseWriteBufferSize());
+            }
+            btSink = hbaseWrite;
+        }
 
-                        Iterable<String> csvLines = ctx.element().getValue();
+        PCollection<Mutation> tallMutations;
+        if (options.getStatefulAggregation()) {
+            // per dim1 accumulators in state, a firing costs the same whatever the window size
+            tallMutations = events
+                .apply(options.getWindowSize() + " window for healthy data, stateful aggregation",
+                    Window.<String>into(FixedWindows.of(DurationUtils.parseDuration(options.getWindowSize())))
+                        .discardingFiredPanes()
+                        .withAllowedLateness(DurationUtils.parseDuration(options.getAllowedLateness())))
+                .apply("Produce KV for aggregation operations", // produce PCollection<KV<String, String>>
+                    ParDo.of(new ProduceKv(options.getCsvDelimiter())))
+                .apply("Produce KV of metrics1 & distinct value", // produce PCollection<KV<dim1, KV<metrics1, value>>>
+                    ParDo.of(new DoFn<KV<String, String>, KV<String, KV<Long, String>>>() {
+                        @ProcessElement
+                        public void processElement(ProcessContext ctx) {
+                            // i.e. "event_ts,thread_id,thread_name,seq,dim1,metrics1,process_ts,dim1_val"
+                            String[] csvValues = ctx.element().getValue().split(",");
 
-                        // i.e. "event_ts,thread_id,thread_name,seq,dim1,metrics1,process_ts,dim1_val"
-                        for(String csvLine : csvLines) {
-                            String[] csvValues = csvLine.split(",");
-                            Integer metric = Integer.valueOf(csvValues[5]);
+                            ctx.output(KV.of(ctx.element().getKey(),
+                                KV.of(Long.parseLong(csvValues[5]), csvValues[distinctColumn])));
+                        }}))
+                .apply("Aggregate by dim1 incrementally",
+                    IncrementalAggregator.of(options.getStatefulEmit(),
+                        DurationUtils.parseDuration(options.getEarlyFiringPeriod()), hllPrecision))
+                .apply("Produce HBase/Bigtable tall table",
+                    ParDo.of(new DoFn<KV<String, KV<PaneInfo, RollupStats>>, Mutation>() {
+                        // encoded window_info cells per window & pane
+                        private transient WindowInfoCache<byte[][]> windowInfo;
+
+                        @Setup
+                        public void setup() {
+                            windowInfo = new WindowInfoCache<>((window, pane) ->
+                                BigtableSchema.windowInfoValues((IntervalWindow) window, pane));
+                        }
 
-                            ++count;
+                        @StartBundle
+                        public void startBundle() {
+                            windowInfo.clear();
+                        }
 
-                            sum += metric;
+                        @ProcessElement
+                        public void processElement(ProcessContext ctx, IntervalWindow window) {
+                            final long processTs = System.currentTimeMillis();
+
+                            // the pane the aggregator fired, NOT ctx.pane()
+                            ctx.output(BigtableSchema.addWindowInfo(
+                                addTallStats(
+                                    new Put(
+                                        btRowKeys.apply(
+                                            BigtableSchema.tallRowKey(ctx.element().getKey(), processTs))),
+                                    ctx.element().getValue().getValue(), processTs),
+                                windowInfo.get(window, ctx.element().getValue().getKey())));
+                        }}));
+        } else {
+            // window/panes accumulating mode, good for tall table
+            tallMutations = events
+                .apply(options.getWindowSize() 
+                        + " window for healthy data in KV for real time analysis, accumulating mode",
+                    Window.<String>into(FixedWindows.of(DurationUtils.parseDuration(options.getWindowSize())))
+                        .triggering(
+                            AfterWatermark.pastEndOfWindow()
+                                .withEarlyFirings(
+                                    AfterProcessingTime
+                                        .pastFirstElementInPane() 
+                                        .plusDelayOf(DurationUtils.parseDuration(options.getEarlyFiringPeriod())))
+                                .withLateFirings(lateFirings(options))
+                        )
+                        .accumulatingFiredPanes()
+                        .withAllowedLateness(DurationUtils.parseDuration(options.getAllowedLateness()),
+                            ClosingBehavior.FIRE_IF_NON_EMPTY))
+                .apply("Produce KV for aggregation operations", // produce PCollection<KV<String, String>>
+                    ParDo.of(new ProduceKv(options.getCsvDelimiter())))
+                .apply("group by dim1 for analysis", // produce PCollection<KV<String, Iterable<String>>>
+                    GroupByKey.create())
+                .apply("Produce HBase/Bigtable tall table",
+                    ParDo.of(new DoFn<KV<String, Iterable<String>>, Put>() {
+                        @ProcessElement
+                        public void processElement(ProcessContext ctx) {
+                            final long processTs = System.currentTimeMillis();
 
-                            if (min >  metric)
-                                min = metric;
-                            
-                            if (max < metric)
-                                max = metric;
-                        }
+                            // statistical data, mergeable, @see RollupStats
+                            RollupStats stats = RollupStats.create(hllPrecision);
 
-                        if (count > 0)
-                            avg = sum.floatValue() / count;
+                            // i.e. "event_ts,thread_id,thread_name,seq,dim1,metrics1,process_ts,dim1_val"
+                            for(String csvLine : ctx.element().getValue()) {
+                                String[] csvValues = csvLine.split(",");
+                                stats.add(Long.parseLong(csvValues[5]), csvValues[distinctColumn]);
+                            }
 
-                        ctx.output(
-                            new Put(
-                                Bytes.toBytes(sb.append('#')
-                                    .append(Long.MAX_VALUE - processTs).toString())
-                            ).addColumn(stats_cf, Bytes.toBytes("num_records"), processTs,
-                                Bytes.toBytes(count.toString()))
-                            .addColumn(stats_cf, Bytes.toBytes("sum"), processTs,
-                                Bytes.toBytes(sum.toString()))
-                            .addColumn(stats_cf, Bytes.toBytes("max"), processTs,
-                                Bytes.toBytes(max.toString()))
-                            .addColumn(stats_cf, Bytes.toBytes("min"), processTs,
-                                Bytes.toBytes(min.toString()))
-                            .addColumn(stats_cf, Bytes.toBytes("avg"), processTs,
-                                Bytes.toBytes(avg.toString()))
-                        );
-                    }}))
-                .apply("Append window information",
-                    ParDo.of(new DoFn<Put, Mutation>() {
-                        @ProcessElement
-                        public void processElement(ProcessContext ctx, IntervalWindow window)
-                            throws IllegalArgumentException {
-
-                            final byte[] win_cf = Bytes.toBytes("window_info");
-
-                            Put p = ctx.element();
-
-                            p.addColumn(win_cf, Bytes.toBytes("window"),
-                                    Bytes.toBytes(window.toString()))
-                                .addColumn(win_cf, Bytes.toBytes("pane"),
-                                    Bytes.toBytes(ctx.pane().toString()))
-                                .addColumn(win_cf, Bytes.toBytes("pane_idx"),
-                                    Bytes.toBytes(String.valueOf(ctx.pane().getIndex())))
-                                .addColumn(win_cf, Bytes.toBytes("pane_nonspeculative_idx"),
-                                    Bytes.toBytes(String.valueOf(ctx.pane().getNonSpeculativeIndex())))
-                                .addColumn(win_cf, Bytes.toBytes("is_first"),
-                                    Bytes.toBytes(String.valueOf(ctx.pane().isFirst())))
-                                .addColumn(win_cf, Bytes.toBytes("is_last"),
-                                    Bytes.toBytes(String.valueOf(ctx.pane().isLast())))
-                                .addColumn(win_cf, Bytes.toBytes("timing"),
-                                    Bytes.toBytes(ctx.pane().getTiming().toString()))
-                                .addColumn(win_cf, Bytes.toBytes("win_start_ts"),
-                                    Bytes.toBytes(String.valueOf(window.start().getMillis())))
-                                .addColumn(win_cf, Bytes.toBytes("win_end_ts"),
-                                    Bytes.toBytes(String.valueOf(window.end().getMillis())));
-
-                            ctx.output(p);
+                            ctx.output(addTallStats(
+                                new Put(
+                                    btRowKeys.apply(
+                                        BigtableSchema.tallRowKey(ctx.element().getKey(), processTs))),
+                                stats, processTs));
                         }}))
-                .apply("Insert into Bigtable, tall schema",
-                    CloudBigtableIO.writeToTable(
-                        new CloudBigtableTableConfiguration.Builder()
-                            .withProjectId(options.getProject())
-                            .withInstanceId(options.getBtInstanceId())
-                            .withTableId(options.getBtTableIdTall())
-                            .build()));
-
-                /*
-            */
+                    .apply("Append window information",
+                        ParDo.of(new DoFn<Put, Mutation>() {
+                            // encoded window_info cells per window & pane
+                            private transient WindowInfoCache<byte[][]> windowInfo;
+
+                            @Setup
+                            public void setup() {
+                                windowInfo = new WindowInfoCache<>((window, pane) ->
+                                    BigtableSchema.windowInfoValues((IntervalWindow) window, pane));
+                            }
+
+                            @StartBundle
+                            public void startBundle() {
+                                windowInfo.clear();
+                            }
+
+                            @ProcessElement
+                            public void processElement(ProcessContext ctx, IntervalWindow window)
+                                throws IllegalArgumentException {
+
+                                ctx.output(BigtableSchema.addWindowInfo(ctx.element(),
+                                    windowInfo.get(window, ctx.pane())));
+                            }}));
+        }
+
+        tallMutations.apply("Insert into Bigtable, tall schema",
+            btSink.writeTo(options.getBtTableIdTall()));
 
         // window/panes disgarding mode, good for wide table
-        processedData.get(STR_OUT)
+        PCollection<KV<String, Iterable<String>>> discardingGroups = events
             .apply(options.getWindowSize() 
                     + " window for healthy data in KV for real time analysis, disgarding mode",
                 Window.<String>into(FixedWindows.of(DurationUtils.parseDuration(options.getWindowSize())))
@@ -640,9 +813,7 @@ public class BindiegoStreaming {
                                 AfterProcessingTime
                                     .pastFirstElementInPane() 
                                     .plusDelayOf(DurationUtils.parseDuration(options.getEarlyFiringPeriod())))
-                            .withLateFirings(
-                                AfterPane.elementCountAtLeast(
-                                    options.getLateFiringCount().intValue()))
+                            .withLateFirings(lateFirings(options))
                     )
                     .discardingFiredPanes() 
                     .withAllowedLateness(DurationUtils.parseDuration(options.getAllowedLateness()),
@@ -650,83 +821,261 @@ public class BindiegoStreaming {
             .apply("Produce KV for aggregation operations", // produce PCollection<KV<String, String>>
                 ParDo.of(new ProduceKv(options.getCsvDelimiter())))
             .apply("group by dim1 for analysis", // produce PCollection<KV<String, Iterable<String>>>
-                GroupByKey.create())
-            .apply("Produce HBase/Bigtable wide table, window/pane info append to column names",
-                ParDo.of(new DoFn<KV<String, Iterable<String>>, Mutation>() {
-                    @ProcessElement
-                    public void processElement(ProcessContext ctx, IntervalWindow window)
-                             throws IllegalArgumentException {
-                        final long processTs = System.currentTimeMillis();
+                GroupByKey.create());
 
-                        // row key related value
-                        StringBuilder sb = new StringBuilder(ctx.element().getKey());
+        // mergeable aggregates of each discarding pane, i.e. the partial aggregates of a window
+        // and the late events, i.e. the elements of the LATE discarding panes, as a side output
+        PCollectionTuple paneOutputs = discardingGroups
+            .apply("Aggregate pane stats", // produce PCollection<KV<dim1, RollupStats>>
+                ParDo.of(new DoFn<KV<String, Iterable<String>>, KV<String, RollupStats>>() {
+                    private final Counter lateEvents =
+                        Metrics.counter(BindiegoStreaming.class, "late_events");
 
-                        // statistical data, choose the appropreate data types according to your case
-                        final byte[] stats_cf = Bytes.toBytes("stats");
-                        Integer count = 0;
-                        Integer sum = 0;
-                        Integer min = Integer.MAX_VALUE;
-                        Integer max = Integer.MIN_VALUE;
-                        Float avg = 0F;
-
-                        Iterable<String> csvLines = ctx.element().getValue();
+                    @ProcessElement
+                    public void processElement(ProcessContext ctx) {
+                        final boolean late = PaneInfo.Timing.LATE == ctx.pane().getTiming();
+                        RollupStats stats = RollupStats.create(hllPrecision);
 
                         // i.e. "event_ts,thread_id,thread_name,seq,dim1,metrics1,process_ts,dim1_val"
-                        for(String csvLine : csvLines) {
+                        for(String csvLine : ctx.element().getValue()) {
                             String[] csvValues = csvLine.split(",");
-                            Integer metric = Integer.valueOf(csvValues[5]);
+                            stats.add(Long.parseLong(csvValues[5]), csvValues[distinctColumn]);
 
-                            ++count;
+                            if (late)
+                                ctx.output(LATE_OUT, csvLine);
+                        }
 
-                            sum += metric;
+                        if (late)
+                            lateEvents.inc(stats.getCount());
 
-                            if (min >  metric)
-                                min = metric;
-                            
-                            if (max < metric)
-                                max = metric;
-                        }
+                        ctx.output(KV.of(ctx.element().getKey(), stats));
+                    }})
+                .withOutputTags(PANE_STATS_OUT, TupleTagList.of(LATE_OUT)));
 
-                        if (count > 0)
-                            avg = sum.floatValue() / count;
+        PCollection<KV<String, RollupStats>> paneStats = paneOutputs.get(PANE_STATS_OUT)
+            .setCoder(KvCoder.of(StringUtf8Coder.of(), RollupStats.RollupStatsCoder.of()));
 
-                        String pane_idx_str = String.valueOf(ctx.pane().getIndex());
+        paneStats
+            .apply("Produce HBase/Bigtable wide table, window/pane info append to column names",
+                ParDo.of(new DoFn<KV<String, RollupStats>, Mutation>() {
+                    @ProcessElement
+                    public void processElement(ProcessContext ctx, IntervalWindow window)
+                             throws IllegalArgumentException {
+                        final long processTs = System.currentTimeMillis();
 
-                        ctx.output(
+                        // fixed width binary cells, @see BigtableSchema for decoding
+                        ctx.output(addPaneStats(
                             new Put(
-                                Bytes.toBytes(sb.append('#')
-                                    .append(String.valueOf(window.start().getMillis()))
-                                    .append('#')
-                                    .append(String.valueOf(window.end().getMillis())).toString())
-                            ).addColumn(stats_cf, Bytes.toBytes("num_records#" + pane_idx_str), 
-                                processTs,
-                                Bytes.toBytes(count.toString()))
-                            .addColumn(stats_cf, Bytes.toBytes("sum#" + pane_idx_str), 
-                                processTs,
-                                Bytes.toBytes(sum.toString()))
-                            .addColumn(stats_cf, Bytes.toBytes("max#" + pane_idx_str), 
-                                processTs,
-                                Bytes.toBytes(max.toString()))
-                            .addColumn(stats_cf, Bytes.toBytes("min#" + pane_idx_str), 
-                                processTs,
-                                Bytes.toBytes(min.toString()))
-                            .addColumn(stats_cf, Bytes.toBytes("avg#" + pane_idx_str), 
-                                processTs,
-                                Bytes.toBytes(avg.toString()))
-                        );
+                                btRowKeys.apply(BigtableSchema.wideRowKey(ctx.element().getKey(),
+                                    window.start().getMillis(), window.end().getMillis()))),
+                            BigtableSchema.STATS_CF, ctx.element().getValue(),
+                            ctx.pane().getIndex(), processTs));
                     }}))
                 .apply("Insert into Bigtable, wide schema",
-                    CloudBigtableIO.writeToTable(
-                        new CloudBigtableTableConfiguration.Builder()
-                            .withProjectId(options.getProject())
-                            .withInstanceId(options.getBtInstanceId())
-                            .withTableId(options.getBtTableIdWide())
-                            .build()));
+                    btSink.writeTo(options.getBtTableIdWide()));
+
+        // sliding windows assembled from per period slices of the pane aggregates
+        PCollection<KV<String, RollupStats>> slidingStats = null;
+        if (!options.getSlidingWindowSize().isEmpty()) {
+            final Duration slidingPeriod = DurationUtils.parseDuration(options.getSlidingPeriod());
+            checkArgument(0 == slidingPeriod.getMillis()
+                    % DurationUtils.parseDuration(options.getWindowSize()).getMillis(),
+                "--slidingPeriod must be a multiple of --windowSize");
+
+            final SlidingAggregator sliding = SlidingAggregator.of(
+                DurationUtils.parseDuration(options.getSlidingWindowSize()), slidingPeriod, hllPrecision);
+            final long slidingSize = sliding.getSize().getMillis();
+
+            slidingStats = paneStats.apply("Sliding window aggregation", sliding);
+
+            // same wide table, the row key tells the window size
+            slidingStats
+                .apply("Produce HBase/Bigtable wide table, sliding windows",
+                    ParDo.of(new DoFn<KV<String, RollupStats>, Mutation>() {
+                        @ProcessElement
+                        public void processElement(ProcessContext ctx, IntervalWindow window) {
+                            final long end = window.end().getMillis();
+
+                            ctx.output(addPaneStats(
+                                new Put(
+                                    btRowKeys.apply(BigtableSchema.wideRowKey(ctx.element().getKey(),
+                                        end - slidingSize, end))),
+                                BigtableSchema.STATS_CF, ctx.element().getValue(),
+                                0L, System.currentTimeMillis()));
+                        }}))
+                .apply("Insert into Bigtable, sliding windows",
+                    btSink.writeTo(options.getBtTableIdWide()));
+        }
+
+        // cascaded rollups, e.g. window -> 1m -> 1h -> 1d, each resolution merges the partial
+        // aggregates of the finer one & goes to its own column family
+        if (!options.getBtTableIdRollup().isEmpty()) {
+            PCollection<KV<String, RollupStats>> finer = paneStats;
+
+            for (Map.Entry<String, Duration> rollup : rollups(options).entrySet()) {
+                final String name = rollup.getKey();
+                final Duration size = rollup.getValue();
+
+                // fire once the finer rollups are in, late panes are the deltas
+                PCollection<KV<String, RollupStats>> coarser = finer
+                    .apply(name + " rollup window",
+                        Window.<KV<String, RollupStats>>into(FixedWindows.of(size))
+                            .triggering(
+                                AfterWatermark.pastEndOfWindow()
+                                    .withLateFirings(lateFirings(options)))
+                            .discardingFiredPanes()
+                            .withAllowedLateness(DurationUtils.parseDuration(options.getAllowedLateness()),
+                                ClosingBehavior.FIRE_IF_NON_EMPTY))
+                    .apply(name + " merge partial aggregates",
+                        Combine.perKey(RollupStats.mergeFn(hllPrecision)));
+
+                final byte[] family = Bytes.toBytes(name);
+                coarser
+                    .apply("Produce HBase/Bigtable " + name + " rollup",
+                        ParDo.of(new DoFn<KV<String, RollupStats>, Mutation>() {
+                            @ProcessElement
+                            public void processElement(ProcessContext ctx, IntervalWindow window) {
+                                ctx.output(addPaneStats(
+                                    new Put(
+                                        btRowKeys.apply(BigtableSchema.wideRowKey(ctx.element().getKey(),
+                                            window.start().getMillis(), window.end().getMillis()))),
+                                    family, ctx.element().getValue(),
+                                    ctx.pane().getIndex(), System.currentTimeMillis()));
+                            }}))
+                    .apply("Insert into Bigtable, " + name + " rollup",
+                        btSink.writeTo(options.getBtTableIdRollup()));
+
+                finer = coarser;
+            }
+        }
+
+        // running totals, discarding panes are exactly the deltas to increment
+        // REVISIT: Bigtable only for now
+        if (!options.getBtTableIdCounter().isEmpty() && options.getHbaseZkQuorum().isEmpty()) {
+            paneStats
+                .apply("Produce running total deltas", // produce PCollection<KV<dim1, KV<count, sum>>>
+                    ParDo.of(new DoFn<KV<String, RollupStats>, KV<String, KV<Long, Long>>>() {
+                        @ProcessElement
+                        public void processElement(ProcessContext ctx) {
+                            RollupStats stats = ctx.element().getValue();
+                            ctx.output(KV.of(ctx.element().getKey(),
+                                KV.of(stats.getCount(), stats.getSum())));
+                        }}))
+                .apply("Increment Bigtable running totals",
+                    BigtableCounterIO.write()
+                        .withGranularity(options.getBtCounterGranularity())
+                        .withRowKeyStrategy(btRowKeys)
+                        .withTableConf(
+                            btWrite.writeTo(options.getBtTableIdCounter()).tableConf()));
+        }
+
+        // live leaderboards, top K items of a column by metrics1 per window
+        PCollection<List<TopKSketch.Ranked>> topK = null;
+        if (options.getTopK() > 0
+                && !(options.getBtTableIdTopK().isEmpty() && options.getEsTopKIndex().isEmpty())) {
+            final int topKColumn = options.getTopKColumn();
+
+            topK = events
+                .apply(options.getWindowSize()
+                        + " window for healthy data for top K, accumulating mode",
+                    Window.<String>into(FixedWindows.of(DurationUtils.parseDuration(options.getWindowSize())))
+                        .triggering(
+                            AfterWatermark.pastEndOfWindow()
+                                .withEarlyFirings(
+                                    AfterProcessingTime
+                                        .pastFirstElementInPane()
+                                        .plusDelayOf(DurationUtils.parseDuration(options.getEarlyFiringPeriod())))
+                                .withLateFirings(lateFirings(options))
+                        )
+                        .accumulatingFiredPanes()
+                        .withAllowedLateness(DurationUtils.parseDuration(options.getAllowedLateness()),
+                            ClosingBehavior.FIRE_IF_NON_EMPTY))
+                .apply("Produce KV of item & metrics1", // produce PCollection<KV<item, metrics1>>
+                    ParDo.of(new DoFn<String, KV<String, Long>>() {
+                        @ProcessElement
+                        public void processElement(ProcessContext ctx) {
+                            // i.e. "event_ts,thread_id,thread_name,seq,dim1,metrics1,process_ts,dim1_val"
+                            String[] csvValues = ctx.element().split(",");
+                            ctx.output(KV.of(csvValues[topKColumn], Long.parseLong(csvValues[5])));
+                        }}))
+                .apply("Top K heavy hitters",
+                    Combine.globally(TopKSketch.of(options.getTopK())).withoutDefaults());
+
+            if (!options.getBtTableIdTopK().isEmpty()) {
+                topK.apply("Produce HBase/Bigtable top K table",
+                        ParDo.of(new DoFn<List<TopKSketch.Ranked>, Mutation>() {
+                            @ProcessElement
+                            public void processElement(ProcessContext ctx, IntervalWindow window) {
+                                final long processTs = System.currentTimeMillis();
+
+                                // one row per window, later panes overwrite the ranks
+                                Put put = new Put(btRowKeys.apply(BigtableSchema.topKRowKey(
+                                    topKColumn, window.start().getMillis(), window.end().getMillis())));
+
+                                for (TopKSketch.Ranked ranked : ctx.element()) {
+                                    put.addColumn(BigtableSchema.STATS_CF,
+                                            BigtableSchema.topKItemQualifier(ranked.getRank()),
+                                            processTs, Bytes.toBytes(ranked.getItem()))
+                                        .addColumn(BigtableSchema.STATS_CF,
+                                            BigtableSchema.topKWeightQualifier(ranked.getRank()),
+                                            processTs, Bytes.toBytes(ranked.getWeight()))
+                                        .addColumn(BigtableSchema.STATS_CF,
+                                            BigtableSchema.topKErrorQualifier(ranked.getRank()),
+                                            processTs, Bytes.toBytes(ranked.getError()));
+                                }
+
+                                if (!put.isEmpty()) {
+                                    ctx.output(put);
+                                }
+                            }}))
+                    .apply("Insert into Bigtable, top K",
+                        btSink.writeTo(options.getBtTableIdTopK()));
+            }
+        }
 
         /* END - building realtime analytics */
 
         /* Elasticsearch */
-        processedData.get(STR_OUT)
+        ElasticsearchIO.ConnectionConf esConnectionConf =
+            ElasticsearchIO.ConnectionConf.create(
+                options.getEsHost(),
+                options.getEsIndex())
+                    .withUsername(options.getEsUser())
+                    .withPassword(options.getEsPass())
+                    .withNumThread(options.getEsNumThread());
+                    //.withTrustSelfSignedCerts(true)) // false by default
+
+        ElasticsearchIO.Append esAppend = ElasticsearchIO.append()
+            .withMaxBatchSize(options.getEsMaxBatchSize())
+            .withMaxBatchSizeBytes(options.getEsMaxBatchBytes())
+            .withConnectionConf(esConnectionConf)
+            .withRetryConf(
+                ElasticsearchIO.RetryConf.create(6, Duration.standardSeconds(60)));
+
+        if (!options.getEsRoutingField().isEmpty()) {
+            esAppend = esAppend.withRoutingFn(ElasticsearchIO.field(options.getEsRoutingField()));
+        }
+
+        // ES outage should not stall other sinks, spill to files then drain back later
+        if (!options.getEsSpillDir().get().isEmpty()) {
+            ElasticsearchIO.SpillConf esSpillConf =
+                ElasticsearchIO.SpillConf.create(options.getEsSpillDir(), options.getTempLocation())
+                    .withFilenamePrefix(options.getFilenamePrefix())
+                    .withShardTemplate(options.getOutputShardTemplate())
+                    .withNumShards(options.getNumShards());
+
+            esAppend = esAppend.withSpillConf(esSpillConf);
+
+            p.apply("Drain spilled Elasticsearch documents",
+                ElasticsearchIO.drain()
+                    .withConnectionConf(esConnectionConf)
+                    .withSpillConf(esSpillConf)
+                    .withMaxBatchSize(options.getEsMaxBatchSize())
+                    .withMaxAttempts(options.getEsDrainMaxAttempts())
+                    .withPollInterval(DurationUtils.parseDuration(options.getEsDrainPeriod())));
+        }
+
+        events
             .apply(options.getWindowSize() + " window for healthy data",
                 Window.<String>into(FixedWindows.of(DurationUtils.parseDuration(options.getWindowSize())))
                     .triggering(
@@ -735,9 +1084,7 @@ public class BindiegoStreaming {
                                 AfterProcessingTime
                                     .pastFirstElementInPane() 
                                     .plusDelayOf(DurationUtils.parseDuration(options.getEarlyFiringPeriod())))
-                            .withLateFirings(
-                                AfterPane.elementCountAtLeast(
-                                    options.getLateFiringCount().intValue()))
+                            .withLateFirings(lateFirings(options))
                     )
                     .discardingFiredPanes() // e.g. .accumulatingFiredPanes() etc.
                     .withAllowedLateness(DurationUtils.parseDuration(options.getAllowedLateness()),
@@ -795,164 +1142,164 @@ public class BindiegoStreaming {
                         ctx.output(json);
                     }
                 }))
-            .apply("Append data to Elasticsearch",
-                ElasticsearchIO.append()
-                    .withMaxBatchSize(options.getEsMaxBatchSize())
-                    .withMaxBatchSizeBytes(options.getEsMaxBatchBytes())
-                    .withConnectionConf(
-                        ElasticsearchIO.ConnectionConf.create(
-                            options.getEsHost(),
-                            options.getEsIndex())
-                                .withUsername(options.getEsUser())
-                                .withPassword(options.getEsPass())
-                                .withNumThread(options.getEsNumThread()))
-                                //.withTrustSelfSignedCerts(true)) // false by default
-                    .withRetryConf(
-                        ElasticsearchIO.RetryConf.create(6, Duration.standardSeconds(60))));
+            .apply("Append data to Elasticsearch", esAppend);
+
+        // one document per dim1 per sliding window
+        if (null != slidingStats && !options.getEsSlidingIndex().isEmpty()) {
+            final long slidingSize =
+                DurationUtils.parseDuration(options.getSlidingWindowSize()).getMillis();
+
+            slidingStats.apply("Prepare Elasticsearch sliding window Json data",
+                    ParDo.of(new DoFn<KV<String, RollupStats>, String>() {
+                        private ObjectMapper mapper;
+
+                        @Setup
+                        public void setup() {
+                            mapper = new ObjectMapper();
+                        }
+
+                        @ProcessElement
+                        public void processElement(ProcessContext ctx, IntervalWindow window)
+                                throws Exception {
+                            final long end = window.end().getMillis();
+                            final RollupStats stats = ctx.element().getValue();
+                            final double[] quantiles = QuantileSketch.quantiles(stats.getSketch());
+
+                            Map<String, Object> jsonMap = new HashMap<>();
+                            jsonMap.put("@timestamp", new java.sql.Timestamp(end - slidingSize));
+                            jsonMap.put("window_end", new java.sql.Timestamp(end));
+                            jsonMap.put("dim1", ctx.element().getKey());
+                            jsonMap.put("num_records", stats.getCount());
+                            jsonMap.put("sum", stats.getSum());
+                            jsonMap.put("min", stats.getMin());
+                            jsonMap.put("max", stats.getMax());
+                            jsonMap.put("avg", stats.getAvg());
+                            jsonMap.put("p50", quantiles[0]);
+                            jsonMap.put("p95", quantiles[1]);
+                            jsonMap.put("p99", quantiles[2]);
+                            jsonMap.put("distinct", stats.getHll().estimate());
+
+                            ctx.output(mapper.writeValueAsString(jsonMap));
+                        }
+                    }))
+                .apply("Append sliding windows to Elasticsearch",
+                    ElasticsearchIO.append()
+                        .withMaxBatchSize(options.getEsMaxBatchSize())
+                        .withMaxBatchSizeBytes(options.getEsMaxBatchBytes())
+                        .withConnectionConf(esConnectionConf.withIndex(options.getEsSlidingIndex()))
+                        .withRetryConf(
+                            ElasticsearchIO.RetryConf.create(6, Duration.standardSeconds(60))));
+        }
+
+        // leaderboards, one document per rank per pane, the latest process_ts of a window wins
+        if (null != topK && !options.getEsTopKIndex().isEmpty()) {
+            final int topKColumn = options.getTopKColumn();
+
+            topK.apply("Prepare Elasticsearch top K Json data",
+                    ParDo.of(new DoFn<List<TopKSketch.Ranked>, String>() {
+                        private ObjectMapper mapper;
+
+                        @Setup
+                        public void setup() {
+                            mapper = new ObjectMapper();
+                        }
+
+                        @ProcessElement
+                        public void processElement(ProcessContext ctx, IntervalWindow window)
+                                throws Exception {
+                            final java.sql.Timestamp processTs =
+                                new java.sql.Timestamp(System.currentTimeMillis());
+
+                            for (TopKSketch.Ranked ranked : ctx.element()) {
+                                Map<String, Object> jsonMap = new HashMap<>();
+                                jsonMap.put("@timestamp", new java.sql.Timestamp(window.start().getMillis()));
+                                jsonMap.put("window_end", new java.sql.Timestamp(window.end().getMillis()));
+                                jsonMap.put("pane_idx", ctx.pane().getIndex());
+                                jsonMap.put("process_ts", processTs);
+                                jsonMap.put("column", topKColumn);
+                                jsonMap.put("rank", ranked.getRank());
+                                jsonMap.put("item", ranked.getItem());
+                                jsonMap.put("weight", ranked.getWeight());
+                                jsonMap.put("error", ranked.getError());
+
+                                ctx.output(mapper.writeValueAsString(jsonMap));
+                            }
+                        }
+                    }))
+                .apply("Append top K to Elasticsearch",
+                    ElasticsearchIO.append()
+                        .withMaxBatchSize(options.getEsMaxBatchSize())
+                        .withMaxBatchSizeBytes(options.getEsMaxBatchBytes())
+                        .withConnectionConf(esConnectionConf.withIndex(options.getEsTopKIndex()))
+                        .withRetryConf(
+                            ElasticsearchIO.RetryConf.create(6, Duration.standardSeconds(60))));
+        }
         /* END - Elasticsearch */
 
         healthData.apply("Write windowed healthy CSV files", 
-            TextIO.write()
-                .withNumShards(options.getNumShards())
-                .withWindowedWrites()
-                .to(
+            withFileSharding(options, FileIO.<String>write()
+                .via(TextIO.sink())
+                .withNaming(
                     new WindowedFilenamePolicy(
                         options.getOutputDir(),
                         options.getFilenamePrefix(),
                         options.getOutputShardTemplate(),
                         options.getCsvFilenameSuffix()
-                    ))
-                .withTempDirectory(
-                    FileBasedSink.convertToFileResourceIfPossible(options.getTempLocation())));
-
-        healthData.apply("Prepare table data for BigQuery",
-            ParDo.of(
-                new DoFn<String, TableRow>() {
-                    @ProcessElement
-                    public void processElement(ProcessContext ctx) {
-                        String dataStr = ctx.element();
-
-                        // REVISIT: damn ugly here, hard coded table schema
-                        String[] cols = (
-                                "event_ts,thread_id,thread_name,seq,dim1,metrics1" 
-                                + ",process_ts,dim1_val"
-                                + ",window,pane_info,pane_idx,pane_nonspeculative_idx"
-                                + ",is_first,is_last,pane_timing,pane_event_ts"
-                            ).split(",");
-
-                        // REFISIT: options is NOT serializable, make a class for this transform
-                        // String[] csvData = dataStr.split(options.getCsvDelimiter()); 
-                        String[] csvData = dataStr.split(","); 
-
-                        TableRow row = new TableRow();
-
-                        // for god sake safety purpose
-                        int loopCtr = 
-                            cols.length <= csvData.length ? cols.length : csvData.length;
-
-                        for (int i = 0; i < loopCtr; ++i) {
-                            // deal with non-string field in BQ
-                            switch (i) {
-                                case 0: case 6:
-                                case 15:
-                                    row.set(cols[i], 
-                                        TimeUnit.MILLISECONDS.toSeconds(
-                                            Long.parseLong(csvData[i])));
-                                    // row.set(cols[i], Long.parseLong(csvData[i]));
-                                    // row.set(cols[i], Long.parseLong(csvData[i])/1000);
-                                    // row.set(cols[i], Integer.parseInt(csvData[i]));
-                                    break;
-                                case 10: case 11:
-                                    row.set(cols[i], Long.parseLong(csvData[i]));
-                                    break;
-                                case 3: case 5:
-                                    row.set(cols[i], Integer.parseInt(csvData[i]));
-                                    break;
-                                case 12: case 13:
-                                    row.set(cols[i], Boolean.parseBoolean(csvData[i]));
-                                    break;
-                                default:
-                                    row.set(cols[i], csvData[i]);
-                            }
-                        } // End of dirty code
-
-                        ctx.output(row);
-                    }
-                }
-            ))
-            .apply("Insert into BigQuery",
-                BigQueryIO.writeTableRows()
-                    .withSchema(
-                        NestedValueProvider.of(
-                            options.getBqSchema(),
-                            new SerializableFunction<String, TableSchema>() {
-                                @Override
-                                public TableSchema apply(String jsonPath) {
-                                    TableSchema tableSchema = new TableSchema();
-                                    List<TableFieldSchema> fields = new ArrayList<>();
-                                    SchemaParser schemaParser = new SchemaParser();
-                                    JSONObject jsonSchema;
-
-                                    try {
-                                        jsonSchema = schemaParser.parseSchema(jsonPath);
-
-                                        JSONArray bqSchemaJsonArray =
-                                            jsonSchema.getJSONArray(BIGQUERY_SCHEMA);
-
-                                        for (int i = 0; i < bqSchemaJsonArray.length(); i++) {
-                                            JSONObject inputField = bqSchemaJsonArray.getJSONObject(i);
-                                            TableFieldSchema field =
-                                                new TableFieldSchema()
-                                                    .setName(inputField.getString(NAME))
-                                                    .setType(inputField.getString(TYPE));
-                                            if (inputField.has(MODE)) {
-                                                field.setMode(inputField.getString(MODE));
-                                            }
-
-                                            fields.add(field);
-                                        }
-                                        tableSchema.setFields(fields);
-                                    } catch (Exception e) {
-                                        throw new RuntimeException(e);
-                                    }
-                                    return tableSchema;
-                                }
-                            }))
-                        .withTimePartitioning(
-                            new TimePartitioning().setField("event_ts")
-                                .setType("DAY")
-                                .setExpirationMs(null)
-                        )
-                        .withCreateDisposition(CreateDisposition.CREATE_IF_NEEDED)
-                        .withWriteDisposition(WriteDisposition.WRITE_APPEND)
-                        .to(options.getBqOutputTable())
-                        .withMethod(BigQueryIO.Write.Method.STREAMING_INSERTS)
-                        .withFailedInsertRetryPolicy(InsertRetryPolicy.retryTransientErrors())
-                        .withCustomGcsTempLocation(options.getGcsTempLocation()));
+                    ).asFileNaming())
+                .withTempDirectory(options.getTempLocation()),
+                SizeBasedSharding.utf8Size(), healthPanesPerWindow(options)));
+
+        // load jobs straight from Avro, the other methods from TableRows
+        if (BigQueryIO.Write.Method.FILE_LOADS == options.getBqWriteMethod()) {
+            final String csvDelimiter = options.getCsvDelimiter();
+            healthData.apply("Insert into BigQuery",
+                withWriteMethod(options, toBqTable(options, BigQueryIO.<String>write()
+                        .withAvroFormatFunction(
+                            new PrepareBigQueryAvro(options.getBqSchema(), options.getCsvDelimiter()))
+                        .withAvroSchemaFactory(TableRowConverter::avroSchema)
+                        .useAvroLogicalTypes(),
+                    line -> TableRowConverter.column(line, csvDelimiter, 4),
+                    line -> new Instant(Long.parseLong(TableRowConverter.column(line, csvDelimiter, 0))))));
+        } else {
+            healthData.apply("Prepare table data for BigQuery",
+                    ParDo.of(new PrepareTableRow(options.getBqSchema(), options.getCsvDelimiter(),
+                        BigQueryIO.Write.Method.STORAGE_WRITE_API == options.getBqWriteMethod())))
+                .apply("Insert into BigQuery",
+                    withWriteMethod(options, toBqTable(options, BigQueryIO.writeTableRows(),
+                        row -> (String) row.get("dim1"),
+                        // seconds, or micros for the Storage Write API
+                        BigQueryIO.Write.Method.STORAGE_WRITE_API == options.getBqWriteMethod()
+                            ? row -> new Instant((Long) row.get("event_ts") / 1000L)
+                            : row -> new Instant((Long) row.get("event_ts") * 1000L))));
+        }
 
         // Assume dealing with CSV payload, so basically convert CSV to Avro
         SchemaParser schemaParser = new SchemaParser();
         String avroSchemaJson = schemaParser.getAvroSchema(options.getAvroSchema().get());
         Schema avroSchema = new Schema.Parser().parse(avroSchemaJson);
 
-        healthData.apply("Prepare Avro data",
+        PCollection<GenericRecord> avroData = healthData.apply("Prepare Avro data",
                 ParDo.of(new ConvertCsvToAvro(avroSchemaJson, options.getCsvDelimiter())))
-            .setCoder(AvroCoder.of(GenericRecord.class, avroSchema))
-            // .apply("Write Avro formatted data", AvroIO.writeGenericRecords(avroSchemaJson)
-            .apply("Write Avro formatted data", AvroIO.writeGenericRecords(avroSchema)
-                .to(
-                    new WindowedFilenamePolicy(
-                        options.getOutputDir(),
-                        options.getFilenamePrefix(),
-                        options.getOutputShardTemplate(),
-                        options.getAvroFilenameSuffix()
-                    ))
-                .withWindowedWrites()
-                .withNumShards(options.getNumShards())
-                .withTempDirectory(
-                    FileBasedSink.convertToFileResourceIfPossible(options.getTempLocation())
-                )
-                .withCodec(CodecFactory.snappyCodec()));
+            .setCoder(AvroCoder.of(GenericRecord.class, avroSchema));
+
+        // .apply("Write Avro formatted data", AvroIO.writeGenericRecords(avroSchemaJson)
+        avroData.apply("Write Avro formatted data", avroFileWrite(options,
+            AvroIO.<GenericRecord>sink(avroSchema).withCodec(CodecFactory.snappyCodec()),
+            options.getAvroFilenameSuffix()));
+
+        // columnar copy of the Avro data for Spark, Presto & co., same names & layout
+        if (options.getParquetOutput()) {
+            Map<String, String> parquetConf = new HashMap<>();
+            parquetConf.put("parquet.page.size", String.valueOf(options.getParquetPageSize()));
+            parquetConf.put("parquet.enable.dictionary", String.valueOf(options.getParquetDictionary()));
+
+            avroData.apply("Write Parquet formatted data", avroFileWrite(options,
+                ParquetIO.sink(avroSchema)
+                    .withCompressionCodec(options.getParquetCodec())
+                    .withRowGroupSize(options.getParquetRowGroupSize())
+                    .withConfiguration(parquetConf),
+                options.getParquetFilenameSuffix()));
+        }
         /*
                 .withTempDirectory(NestedValueProvider.of(
                     options.getGcsTempLocation(),
@@ -962,24 +1309,312 @@ public class BindiegoStreaming {
         */
 
         errData.apply("Write windowed error data in CSV format", 
-            TextIO.write()
-                .withNumShards(options.getNumShards())
-                .withWindowedWrites()
-                .to(
+            withFileSharding(options, FileIO.<String>write()
+                .via(TextIO.sink())
+                .withNaming(
                     new WindowedFilenamePolicy(
                         options.getErrOutputDir(),
                         options.getFilenamePrefix(),
                         options.getOutputShardTemplate(),
                         options.getCsvFilenameSuffix()
-                    ))
-                .withTempDirectory(
-                    FileBasedSink.convertToFileResourceIfPossible(options.getTempLocation())));
+                    ).asFileNaming())
+                .withTempDirectory(options.getTempLocation()),
+                // default trigger, a single pane per window
+                SizeBasedSharding.utf8Size(), 1));
+
+        // late events on their own, e.g. to replay or audit what a backlog delayed
+        if (!options.getLateOutputDir().isEmpty()) {
+            paneOutputs.get(LATE_OUT).apply("Write windowed late data in CSV format",
+                withFileSharding(options, FileIO.<String>write()
+                    .via(TextIO.sink())
+                    .withNaming(
+                        new WindowedFilenamePolicy(
+                            StaticValueProvider.of(options.getLateOutputDir()),
+                            options.getFilenamePrefix(),
+                            options.getOutputShardTemplate(),
+                            options.getCsvFilenameSuffix()
+                        ).asFileNaming())
+                    .withTempDirectory(options.getTempLocation()),
+                    // late panes come in bursts, each sized for the late bytes of a whole window
+                    SizeBasedSharding.utf8Size(), 1));
+        }
 
         p.run();
         //p.run().waitUntilFinish();
     }
 
 
+    /**
+     * BigQuery table schema from the "BigQuery Schema" array of a JSON file, e.g.
+     * schemas/dingoactions.json
+     */
+    static TableSchema bqTableSchema(String jsonPath) {
+        TableSchema tableSchema = new TableSchema();
+        List<TableFieldSchema> fields = new ArrayList<>();
+        SchemaParser schemaParser = new SchemaParser();
+        JSONObject jsonSchema;
+
+        try {
+            jsonSchema = schemaParser.parseSchema(jsonPath);
+
+            JSONArray bqSchemaJsonArray =
+                jsonSchema.getJSONArray(BIGQUERY_SCHEMA);
+
+            for (int i = 0; i < bqSchemaJsonArray.length(); i++) {
+                JSONObject inputField = bqSchemaJsonArray.getJSONObject(i);
+                TableFieldSchema field =
+                    new TableFieldSchema()
+                        .setName(inputField.getString(NAME))
+                        .setType(inputField.getString(TYPE));
+                if (inputField.has(MODE)) {
+                    field.setMode(inputField.getString(MODE));
+                }
+
+                fields.add(field);
+            }
+            tableSchema.setFields(fields);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return tableSchema;
+    }
+
+    /**
+     * --bqOutputTable, --bqSchema, partitioned by --bqPartitionType of event_ts & clustered by
+     * --bqClusteringFields, or routed by --bqRouting to tables all created the same way
+     *
+     * @param dim1Fn dim1 of a row, for DIM1 routing
+     * @param eventTsFn event_ts of a row, for PARTITION routing
+     */
+    private static <T> BigQueryIO.Write<T> toBqTable(BindiegoStreamingOptions options,
+            BigQueryIO.Write<T> write, SerializableFunction<T, String> dim1Fn,
+            SerializableFunction<T, Instant> eventTsFn) {
+        final ValueProvider<TableSchema> schema = NestedValueProvider.of(
+            options.getBqSchema(),
+            (SerializableFunction<String, TableSchema>) BindiegoStreaming::bqTableSchema);
+        final List<String> clusteringFields = options.getBqClusteringFields().isEmpty()
+            ? new ArrayList<>()
+            : Arrays.asList(options.getBqClusteringFields().split(","));
+        checkArgument(clusteringFields.size() <= 4,
+            "BigQuery tables are clustered by up to 4 fields, but got %s", clusteringFields);
+
+        write = write
+            .withCreateDisposition(CreateDisposition.CREATE_IF_NEEDED)
+            .withWriteDisposition(WriteDisposition.WRITE_APPEND)
+            .withCustomGcsTempLocation(options.getGcsTempLocation());
+
+        if (BigQueryDestinations.Routing.TABLE != options.getBqRouting()) {
+            write = write.to(BigQueryDestinations.of(options.getBqRouting(), options.getBqOutputTable(),
+                schema, "event_ts", options.getBqPartitionType(), clusteringFields, dim1Fn, eventTsFn));
+
+            // or the clustering of the destinations is dropped, e.g. by the load jobs
+            return clusteringFields.isEmpty() ? write : write.withClustering();
+        }
+
+        write = write
+            .withSchema(schema)
+            .withTimePartitioning(
+                BigQueryDestinations.timePartitioning("event_ts", options.getBqPartitionType()))
+            .to(options.getBqOutputTable());
+
+        return clusteringFields.isEmpty() ? write
+            : write.withClustering(BigQueryDestinations.clustering(clusteringFields));
+    }
+
+    /**
+     * --bqWriteMethod, i.e.
+     *   STREAMING_INSERTS: per row inserts, insert ids for best effort dedup unless
+     *                      --bqIgnoreInsertIds, the most expensive, lowest quota
+     *   FILE_LOADS: Avro load jobs every --bqTriggeringFrequency, free but minutes of latency
+     *   STORAGE_WRITE_API: exactly once, binary protos over --bqNumStorageWriteApiStreams,
+     *                      committed every --bqTriggeringFrequency
+     */
+    private static <T> BigQueryIO.Write<T> withWriteMethod(BindiegoStreamingOptions options,
+            BigQueryIO.Write<T> write) {
+        final BigQueryIO.Write.Method method = options.getBqWriteMethod();
+        write = write.withMethod(method);
+
+        switch (method) {
+            case FILE_LOADS:
+                write = write.withTriggeringFrequency(
+                    DurationUtils.parseDuration(options.getBqTriggeringFrequency()));
+                write = options.getBqNumFileShards() > 0
+                    ? write.withNumFileShards(options.getBqNumFileShards())
+                    : write.withAutoSharding();
+                break;
+            case STORAGE_WRITE_API:
+                write = write.withTriggeringFrequency(
+                    DurationUtils.parseDuration(options.getBqTriggeringFrequency()));
+                if (options.getBqNumStorageWriteApiStreams() > 0) {
+                    write = write.withNumStorageWriteApiStreams(
+                        options.getBqNumStorageWriteApiStreams());
+                }
+                break;
+            default:
+                write = write.withFailedInsertRetryPolicy(InsertRetryPolicy.retryTransientErrors());
+                if (options.getBqIgnoreInsertIds()) {
+                    write = write.ignoreInsertIds();
+                }
+        }
+
+        return write;
+    }
+
+    /**
+     * --numShards files per window pane, or with 0 as many as the bytes of the window need, one
+     * per --fileTargetSize, up to --maxNumShards, spread over the expected panes of the window
+     */
+    private static <T> FileIO.Write<Void, T> withFileSharding(BindiegoStreamingOptions options,
+            FileIO.Write<Void, T> write, SerializableFunction<T, Long> sizeFn, int panesPerWindow) {
+        if (options.getNumShards() > 0) {
+            return write.withNumShards(options.getNumShards());
+        }
+
+        return write.withSharding(
+            SizeBasedSharding.of(sizeFn, options.getFileTargetSize(), options.getMaxNumShards())
+                .withPanesPerWindow(panesPerWindow));
+    }
+
+    /**
+     * Panes of a healthy data window, roughly, i.e. an early one per --earlyFiringPeriod then the
+     * on-time one, late panes aside
+     */
+    static int healthPanesPerWindow(BindiegoStreamingOptions options) {
+        final long window = DurationUtils.parseDuration(options.getWindowSize()).getMillis();
+        final long early = DurationUtils.parseDuration(options.getEarlyFiringPeriod()).getMillis();
+
+        return (int) Math.max(1L, window / early) + 1;
+    }
+
+    /**
+     * Avro & Parquet files, windowed in --outputDir, or with --partitionBy in the Hive style
+     * partitions of it, e.g. <outputDir>/dt=2021-07-01/hr=12/dim1=dim42/, --partitionShards
+     * files each. A partitioned file is written by the worker of its (partition, shard) key, so
+     * a worker keeps a writer open per key it is processing, not per partition of the window.
+     */
+    private static PTransform<PCollection<GenericRecord>, ? extends POutput> avroFileWrite(
+            BindiegoStreamingOptions options, FileIO.Sink<GenericRecord> sink,
+            ValueProvider<String> suffix) {
+        final WindowedFilenamePolicy policy = new WindowedFilenamePolicy(
+            options.getOutputDir(),
+            options.getFilenamePrefix(),
+            options.getOutputShardTemplate(),
+            suffix);
+
+        if (options.getPartitionBy().isEmpty()) {
+            return withFileSharding(options, FileIO.<GenericRecord>write()
+                    .via(sink)
+                    .withNaming(policy.asFileNaming())
+                    .withTempDirectory(options.getTempLocation()),
+                SizeBasedSharding.avroSize(), healthPanesPerWindow(options));
+        }
+
+        return FileIO.<String, GenericRecord>writeDynamic()
+            .by(HivePartitions.of(Arrays.asList(options.getPartitionBy().split(",")), "event_ts"))
+            .withDestinationCoder(StringUtf8Coder.of())
+            .via(sink)
+            .withNaming(partition -> policy.asFileNaming(partition))
+            .withTempDirectory(options.getTempLocation())
+            .withNumShards(options.getPartitionShards());
+    }
+
+    /**
+     * --btRollups by column family name, finest first, each a multiple of the finer one, the
+     * first of --windowSize
+     */
+    static LinkedHashMap<String, Duration> rollups(BindiegoStreamingOptions options) {
+        LinkedHashMap<String, Duration> rollups = new LinkedHashMap<>();
+        Duration finerSize = DurationUtils.parseDuration(options.getWindowSize());
+
+        for (String resolution : options.getBtRollups().split(",")) {
+            final String name = resolution.trim();
+            final Duration size = DurationUtils.parseDuration(name);
+            checkArgument(size.getMillis() > finerSize.getMillis()
+                    && 0 == size.getMillis() % finerSize.getMillis(),
+                "rollup %s must be a multiple of the finer resolution %s", name, finerSize);
+
+            rollups.put(name, size);
+            finerSize = size;
+        }
+
+        return rollups;
+    }
+
+    /**
+     * Late panes fire after --lateFiringCount late elements or --lateFiringDelay after the first
+     * one, whichever comes first, so a burst of late data is a few writes, not one per element
+     */
+    private static Trigger.OnceTrigger lateFirings(BindiegoStreamingOptions options) {
+        return AfterFirst.of(
+            AfterPane.elementCountAtLeast(options.getLateFiringCount().intValue()),
+            AfterProcessingTime
+                .pastFirstElementInPane()
+                .plusDelayOf(DurationUtils.parseDuration(options.getLateFiringDelay())));
+    }
+
+    /**
+     * Fixed width binary stats cells of the tall table, one per stat, @see BigtableSchema for
+     * decoding
+     */
+    private static Put addTallStats(Put put, RollupStats stats, long ts) {
+        put.addColumn(BigtableSchema.STATS_CF, BigtableSchema.NUM_RECORDS, ts,
+                Bytes.toBytes(stats.getCount()))
+            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.SUM, ts,
+                Bytes.toBytes(stats.getSum()))
+            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.MAX, ts,
+                Bytes.toBytes(stats.getMax()))
+            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.MIN, ts,
+                Bytes.toBytes(stats.getMin()))
+            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.AVG, ts,
+                Bytes.toBytes(stats.getAvg()))
+            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.SKETCH, ts,
+                QuantileSketch.toBytes(stats.getSketch()))
+            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.DISTINCT, ts,
+                Bytes.toBytes(stats.getHll().estimate()))
+            .addColumn(BigtableSchema.STATS_CF, BigtableSchema.HLL, ts,
+                DistinctSketch.toBytes(stats.getHll()));
+
+        double[] quantiles = QuantileSketch.quantiles(stats.getSketch());
+        for (int i = 0; i < quantiles.length; ++i) {
+            put.addColumn(BigtableSchema.STATS_CF, BigtableSchema.QUANTILES[i], ts,
+                Bytes.toBytes(quantiles[i]));
+        }
+
+        return put;
+    }
+
+    /**
+     * Stats cells of a pane, <stat>#<pane index>, @see BigtableSchema
+     * a discarding pane only has the aggregates of that pane, readers merge the panes
+     */
+    private static Put addPaneStats(Put put, byte[] family, RollupStats stats,
+            long paneIdx, long ts) {
+        put.addColumn(family, BigtableSchema.numRecordsQualifier(paneIdx), ts,
+                Bytes.toBytes(stats.getCount()))
+            .addColumn(family, BigtableSchema.sumQualifier(paneIdx), ts,
+                Bytes.toBytes(stats.getSum()))
+            .addColumn(family, BigtableSchema.maxQualifier(paneIdx), ts,
+                Bytes.toBytes(stats.getMax()))
+            .addColumn(family, BigtableSchema.minQualifier(paneIdx), ts,
+                Bytes.toBytes(stats.getMin()))
+            .addColumn(family, BigtableSchema.avgQualifier(paneIdx), ts,
+                Bytes.toBytes(stats.getAvg()))
+            .addColumn(family, BigtableSchema.sketchQualifier(paneIdx), ts,
+                QuantileSketch.toBytes(stats.getSketch()))
+            .addColumn(family, BigtableSchema.distinctQualifier(paneIdx), ts,
+                Bytes.toBytes(stats.getHll().estimate()))
+            .addColumn(family, BigtableSchema.hllQualifier(paneIdx), ts,
+                DistinctSketch.toBytes(stats.getHll()));
+
+        double[] quantiles = QuantileSketch.quantiles(stats.getSketch());
+        for (int i = 0; i < quantiles.length; ++i) {
+            put.addColumn(family, BigtableSchema.quantileQualifier(i, paneIdx), ts,
+                Bytes.toBytes(quantiles[i]));
+        }
+
+        return put;
+    }
+
     public static void main(String... args) {
         PipelineOptionsFactory.register(BindiegoStreamingOptions.class);
 
@@ -1010,6 +1645,12 @@ public class BindiegoStreaming {
     /* tag for failure output from the UDF */
     private static final TupleTag<String> STR_FAILURE_OUT = 
         new TupleTag<String>() {};
+    /* tag for main output when aggregating discarding panes */
+    private static final TupleTag<KV<String, RollupStats>> PANE_STATS_OUT =
+        new TupleTag<KV<String, RollupStats>>() {};
+    /* tag for the events of late panes */
+    private static final TupleTag<String> LATE_OUT =
+        new TupleTag<String>() {};
 
     private static final String BIGQUERY_SCHEMA = "BigQuery Schema";
     private static final String NAME = "name";
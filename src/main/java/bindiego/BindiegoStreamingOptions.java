@@ -10,6 +10,12 @@ import org.apache.beam.sdk.options.ValueProvider;
 import org.apache.beam.sdk.options.ValueProvider.NestedValueProvider;
 import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
 import org.apache.beam.runners.dataflow.options.DataflowWorkerLoggingOptions;
+import org.apache.beam.sdk.io.gcp.bigquery.BigQueryIO;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+
+import bindiego.analytics.IncrementalAggregator;
+import bindiego.io.BigQueryDestinations;
+import bindiego.io.BigtableCounterIO;
 
 public interface BindiegoStreamingOptions 
         extends PipelineOptions, StreamingOptions, 
@@ -49,15 +55,67 @@ public interface BindiegoStreamingOptions
     ValueProvider<String> getAvroFilenameSuffix();
     void setAvroFilenameSuffix(ValueProvider<String> value);
 
+    @Description("Also write the healthy data as Parquet, next to the Avro files")
+    @Default.Boolean(false)
+    Boolean getParquetOutput();
+    void setParquetOutput(Boolean value);
+
+    @Description("Parquet File name suffix.")
+    @Default.String(".parquet")
+    ValueProvider<String> getParquetFilenameSuffix();
+    void setParquetFilenameSuffix(ValueProvider<String> value);
+
+    @Description("Parquet compression codec, e.g. SNAPPY, ZSTD, GZIP or UNCOMPRESSED")
+    @Default.Enum("SNAPPY")
+    CompressionCodecName getParquetCodec();
+    void setParquetCodec(CompressionCodecName value);
+
+    @Description("Parquet row group size in bytes, buffered in memory for each open file")
+    @Default.Integer(64 * 1024 * 1024)
+    Integer getParquetRowGroupSize();
+    void setParquetRowGroupSize(Integer value);
+
+    @Description("Parquet page size in bytes")
+    @Default.Integer(1024 * 1024)
+    Integer getParquetPageSize();
+    void setParquetPageSize(Integer value);
+
+    @Description("Parquet dictionary encoding")
+    @Default.Boolean(true)
+    Boolean getParquetDictionary();
+    void setParquetDictionary(Boolean value);
+
+    @Description("Hive style partitions of the Avro & Parquet files under --outputDir, "
+        + "e.g. dt,hr,dim1, dt & hr of event_ts, empty for windowed files only")
+    @Default.String("")
+    String getPartitionBy();
+    void setPartitionBy(String value);
+
+    @Description("Files per partition per window pane with --partitionBy")
+    @Default.Integer(1)
+    Integer getPartitionShards();
+    void setPartitionShards(Integer value);
+
     @Default.String("W-P-SS-of-NN")
     ValueProvider<String> getOutputShardTemplate();
     void setOutputShardTemplate(ValueProvider<String> value);
 
-    @Description("The maximum number of output shards produced when writing.")
+    @Description("The maximum number of output shards produced when writing, "
+        + "0 for one per --fileTargetSize of each pane's share of the window")
     @Default.Integer(1)
     Integer getNumShards();
     void setNumShards(Integer value);
 
+    @Description("Bytes per output file, before compression, an estimate when --numShards=0")
+    @Default.Long(128L * 1024 * 1024)
+    Long getFileTargetSize();
+    void setFileTargetSize(Long value);
+
+    @Description("Upper bound of the output files per window pane when --numShards=0")
+    @Default.Integer(100)
+    Integer getMaxNumShards();
+    void setMaxNumShards(Integer value);
+
     @Description("Output window size.")
     @Default.String("5m")
     String getWindowSize();
@@ -73,11 +131,35 @@ public interface BindiegoStreamingOptions
     String getEarlyFiringPeriod();
     void setEarlyFiringPeriod(String value);
 
-    @Description("Late firing count")
-    @Default.String("1")
+    @Description("Late firing count, a late pane fires after this many late elements or "
+        + "--lateFiringDelay, whichever comes first")
+    @Default.Integer(100)
     Integer getLateFiringCount();
     void setLateFiringCount(Integer value);
 
+    @Description("Late firing delay, processing time after the first late element of a pane")
+    @Default.String("30s")
+    String getLateFiringDelay();
+    void setLateFiringDelay(String value);
+
+    @Description("The directory to output late data files to, i.e. the events of late panes, "
+        + "disabled if empty. Must end with a slash.")
+    @Default.String("")
+    String getLateOutputDir();
+    void setLateOutputDir(String value);
+
+    @Description("Aggregate the tall table by per dim1 state & timers instead of accumulating "
+        + "GroupByKey panes, a firing no longer re-iterates the window's elements")
+    @Default.Boolean(false)
+    Boolean getStatefulAggregation();
+    void setStatefulAggregation(Boolean value);
+
+    @Description("What the stateful aggregation fires, SNAPSHOT of the window so far or "
+        + "DELTA since the last firing")
+    @Default.Enum("SNAPSHOT")
+    IncrementalAggregator.Emit getStatefulEmit();
+    void setStatefulEmit(IncrementalAggregator.Emit value);
+
     @Description("CSV file delimiter.")
     @Default.String(",")
     String getCsvDelimiter();
@@ -93,6 +175,48 @@ public interface BindiegoStreamingOptions
     ValueProvider<String> getBqOutputTable();
     void setBqOutputTable(ValueProvider<String> value);
 
+    @Description("BigQuery time partitioning of event_ts, DAY or HOUR")
+    @Default.String("DAY")
+    String getBqPartitionType();
+    void setBqPartitionType(String value);
+
+    @Description("BigQuery clustering fields, comma separated, up to 4, empty for none")
+    @Default.String("dim1,thread_id")
+    String getBqClusteringFields();
+    void setBqClusteringFields(String value);
+
+    @Description("BigQuery routing, TABLE for the output table, DIM1 for a table per dim1 "
+        + "or PARTITION for the partition decorator of the event time")
+    @Default.Enum("TABLE")
+    BigQueryDestinations.Routing getBqRouting();
+    void setBqRouting(BigQueryDestinations.Routing value);
+
+    @Description("BigQuery write method, STREAMING_INSERTS, FILE_LOADS or STORAGE_WRITE_API")
+    @Default.Enum("STREAMING_INSERTS")
+    BigQueryIO.Write.Method getBqWriteMethod();
+    void setBqWriteMethod(BigQueryIO.Write.Method value);
+
+    @Description("How often FILE_LOADS starts a load job or STORAGE_WRITE_API commits")
+    @Default.String("1m")
+    String getBqTriggeringFrequency();
+    void setBqTriggeringFrequency(String value);
+
+    @Description("Number of STORAGE_WRITE_API streams, 0 for the BigQueryOptions default")
+    @Default.Integer(0)
+    Integer getBqNumStorageWriteApiStreams();
+    void setBqNumStorageWriteApiStreams(Integer value);
+
+    @Description("Number of FILE_LOADS file shards, 0 for auto sharding")
+    @Default.Integer(0)
+    Integer getBqNumFileShards();
+    void setBqNumFileShards(Integer value);
+
+    @Description("STREAMING_INSERTS without insert ids, i.e. no best effort dedup, "
+        + "higher throughput & quota")
+    @Default.Boolean(false)
+    Boolean getBqIgnoreInsertIds();
+    void setBqIgnoreInsertIds(Boolean value);
+
     @Description("GCS temp location for BigQuery")
     @Required
     ValueProvider<String> getGcsTempLocation();
@@ -108,6 +232,17 @@ public interface BindiegoStreamingOptions
     String getMessageIdAttr();
     void setMessageIdAttr(String value);
 
+    @Description("Drop the events whose --dedupColumns were seen within this horizon, e.g. 10m, "
+        + "in addition to the pubsub message id dedup, disabled if empty")
+    @Default.String("")
+    String getDedupHorizon();
+    void setDedupHorizon(String value);
+
+    @Description("Comma separated CSV column indexes identifying an event, thread_id,seq by default")
+    @Default.String("1,3")
+    String getDedupColumns();
+    void setDedupColumns(String value);
+
     @Description("PubsubMessage timestamp attribute.")
     @Default.String("timestamp")
     String getMessageTsAttr();
@@ -128,6 +263,113 @@ public interface BindiegoStreamingOptions
     String getBtTableIdWide();
     void setBtTableIdWide(String value);
 
+    @Description("Bigtable Table Id to keep running totals per dim1 by increments, empty to disable")
+    @Default.String("")
+    String getBtTableIdCounter();
+    void setBtTableIdCounter(String value);
+
+    @Description("Time span of a running total row in the counter table, HOUR or DAY")
+    @Default.Enum("DAY")
+    BigtableCounterIO.Granularity getBtCounterGranularity();
+    void setBtCounterGranularity(BigtableCounterIO.Granularity value);
+
+    @Description("Number of salt buckets prefixed to Bigtable row keys, max 256, 1 for no salt. "
+        + "Do NOT change it for existing tables")
+    @Default.Integer(1)
+    Integer getBtSaltBuckets();
+    void setBtSaltBuckets(Integer value);
+
+    @Description("CSV column (0 based) to count the distinct values of per dim1 window, "
+        + "i.e. 1 for thread_id")
+    @Default.Integer(1)
+    Integer getBtDistinctColumn();
+    void setBtDistinctColumn(Integer value);
+
+    @Description("HyperLogLog precision of the distinct counts, in [4, 16], "
+        + "2^precision bytes per sketch. Keep it the same to merge sketches across jobs")
+    @Default.Integer(12)
+    Integer getBtHllPrecision();
+    void setBtHllPrecision(Integer value);
+
+    @Description("Bigtable table of the cascaded rollups, one column family per resolution, "
+        + "not written if empty")
+    @Default.String("")
+    String getBtTableIdRollup();
+    void setBtTableIdRollup(String value);
+
+    @Description("Comma separated rollup resolutions, each a multiple of the previous one, "
+        + "the first of --windowSize")
+    @Default.String("1h,1d")
+    String getBtRollups();
+    void setBtRollups(String value);
+
+    @Description("Sliding window size, e.g. 5m, a multiple of --slidingPeriod, disabled if empty. "
+        + "Rows go to the wide table")
+    @Default.String("")
+    String getSlidingWindowSize();
+    void setSlidingWindowSize(String value);
+
+    @Description("Sliding window period, e.g. 10s, a multiple of --windowSize")
+    @Default.String("10s")
+    String getSlidingPeriod();
+    void setSlidingPeriod(String value);
+
+    @Description("Elasticsearch index of the sliding window aggregates, not written if empty")
+    @Default.String("")
+    String getEsSlidingIndex();
+    void setEsSlidingIndex(String value);
+
+    @Description("Top K heavy hitters per window, by metrics1, 0 to disable")
+    @Default.Integer(10)
+    Integer getTopK();
+    void setTopK(Integer value);
+
+    @Description("CSV column (0 based) of the top K items, i.e. 2 for thread_name, 4 for dim1")
+    @Default.Integer(2)
+    Integer getTopKColumn();
+    void setTopKColumn(Integer value);
+
+    @Description("Bigtable table of the top K leaderboards, not written if empty")
+    @Default.String("")
+    String getBtTableIdTopK();
+    void setBtTableIdTopK(String value);
+
+    @Description("Elasticsearch index of the top K leaderboards, not written if empty")
+    @Default.String("")
+    String getEsTopKIndex();
+    void setEsTopKIndex(String value);
+
+    @Description("Max mutations per Bigtable bulk request, 0 for the client default")
+    @Default.Integer(0)
+    Integer getBtBulkMaxRowKeyCount();
+    void setBtBulkMaxRowKeyCount(Integer value);
+
+    @Description("Max bytes per Bigtable bulk request, 0 for the client default")
+    @Default.Long(0L)
+    Long getBtBulkMaxRequestBytes();
+    void setBtBulkMaxRequestBytes(Long value);
+
+    @Description("Max in-flight Bigtable bulk requests per worker, 0 for the client default")
+    @Default.Integer(0)
+    Integer getBtMaxInflightRpcs();
+    void setBtMaxInflightRpcs(Integer value);
+
+    @Description("Throttle Bigtable writes when the RPC latency goes above this many ms, 0 to disable")
+    @Default.Integer(0)
+    Integer getBtThrottlingThresholdMs();
+    void setBtThrottlingThresholdMs(Integer value);
+
+    @Description("ZooKeeper quorum of a native HBase cluster, e.g. zk1,zk2,zk3:2181, "
+        + "writes the tall & wide tables to HBase instead of Bigtable if set")
+    @Default.String("")
+    String getHbaseZkQuorum();
+    void setHbaseZkQuorum(String value);
+
+    @Description("HBase client write buffer in bytes, 0 for the client default")
+    @Default.Long(0L)
+    Long getHbaseWriteBufferSize();
+    void setHbaseWriteBufferSize(Long value);
+
     @Description("JDBC class")
     @Required
     String getJdbcClass();
@@ -182,4 +424,26 @@ public interface BindiegoStreamingOptions
     @Default.Integer(1)
     Integer getEsNumThread();
     void setEsNumThread(Integer value);
+
+    @Description("Elasticsearch routing field in the document, e.g. dim1. Empty for default routing")
+    @Default.String("")
+    String getEsRoutingField();
+    void setEsRoutingField(String value);
+
+    @Description("The directory to spill Elasticsearch documents to while ES is unavailable. "
+        + "Must end with a slash. Empty to fail the bundle instead")
+    @Default.String("")
+    ValueProvider<String> getEsSpillDir();
+    void setEsSpillDir(ValueProvider<String> value);
+
+    @Description("How often to check the spill directory and drain documents back to Elasticsearch")
+    @Default.String("1m")
+    String getEsDrainPeriod();
+    void setEsDrainPeriod(String value);
+
+    @Description("Sends of a spilled document Elasticsearch answers 429 to, before it goes to "
+        + "the dead/ directory of --esSpillDir")
+    @Default.Integer(10)
+    Integer getEsDrainMaxAttempts();
+    void setEsDrainMaxAttempts(Integer value);
 }
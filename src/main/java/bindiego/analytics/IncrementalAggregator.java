@@ -0,0 +1,200 @@
+package bindiego.analytics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import org.joda.time.Duration;
+
+import org.apache.beam.sdk.coders.BooleanCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timer;
+import org.apache.beam.sdk.state.TimerSpec;
+import org.apache.beam.sdk.state.TimerSpecs;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+
+/**
+ * Per key incremental aggregation by a stateful DoFn, an alternative to GroupByKey with
+ * early firings. Each element is added once to a RollupStats kept in per key & window state,
+ * so a firing costs the same whatever the number of elements in the window, where an
+ * accumulating GroupByKey pane re-iterates all of them.
+ *
+ * @Input <dim1, <metrics1, distinct value>> in the windows to aggregate, e.g. FixedWindows
+ *        with allowed lateness, the trigger is ignored
+ * @Output <dim1, <pane, RollupStats>> where the pane is what a GroupByKey would have fired,
+ *         i.e. EARLY, ON_TIME, then LATE, timestamped at the end of the window
+ *
+ * Firings
+ *   - a processing time timer, period after the first element since the last firing, EARLY
+ *   - an event time timer at the end of the window, ON_TIME, set again by late elements so
+ *     it fires LATE with the next watermark update, i.e. late elements are coalesced instead
+ *     of a pane each
+ *
+ * State is garbage collected by the runner once the window expires, i.e. end of window +
+ * allowed lateness, so no pane is marked as the last one.
+ *
+ * SNAPSHOT emits the aggregate of the window so far, like accumulating panes, DELTA only the
+ * elements since the last firing, like discarding panes.
+ */
+public class IncrementalAggregator extends PTransform<PCollection<KV<String, KV<Long, String>>>,
+        PCollection<KV<String, KV<PaneInfo, RollupStats>>>> {
+
+    public enum Emit {
+        SNAPSHOT,
+        DELTA
+    }
+
+    private final Emit emit;
+    private final Duration firingPeriod;
+    private final int hllPrecision;
+
+    private IncrementalAggregator(Emit emit, Duration firingPeriod, int hllPrecision) {
+        this.emit = emit;
+        this.firingPeriod = firingPeriod;
+        this.hllPrecision = hllPrecision;
+    }
+
+    /** @param firingPeriod processing time delay of the early firings */
+    public static IncrementalAggregator of(Emit emit, Duration firingPeriod, int hllPrecision) {
+        checkArgument(firingPeriod.getMillis() > 0,
+            "firing period must be > 0, but was %s", firingPeriod);
+        return new IncrementalAggregator(emit, firingPeriod, hllPrecision);
+    }
+
+    @Override
+    public PCollection<KV<String, KV<PaneInfo, RollupStats>>> expand(
+            PCollection<KV<String, KV<Long, String>>> input) {
+        return input
+            .apply("Aggregate incrementally by key",
+                ParDo.of(new AggregateFn(emit, firingPeriod, hllPrecision)))
+            .setCoder(KvCoder.of(StringUtf8Coder.of(),
+                KvCoder.of(PaneInfo.PaneInfoCoder.of(), RollupStats.RollupStatsCoder.of())));
+    }
+
+    static class AggregateFn
+            extends DoFn<KV<String, KV<Long, String>>, KV<String, KV<PaneInfo, RollupStats>>> {
+        private final Emit emit;
+        private final Duration firingPeriod;
+        private final int hllPrecision;
+
+        // aggregate of the window, or since the last firing if DELTA
+        @StateId("stats")
+        private final StateSpec<ValueState<RollupStats>> statsSpec =
+            StateSpecs.value(RollupStats.RollupStatsCoder.of());
+
+        // elements since the last firing
+        @StateId("pending")
+        private final StateSpec<ValueState<Long>> pendingSpec = StateSpecs.value(VarLongCoder.of());
+
+        // last pane fired, null if none
+        @StateId("pane")
+        private final StateSpec<ValueState<PaneInfo>> paneSpec =
+            StateSpecs.value(PaneInfo.PaneInfoCoder.of());
+
+        // end of window timer fired
+        @StateId("closed")
+        private final StateSpec<ValueState<Boolean>> closedSpec = StateSpecs.value(BooleanCoder.of());
+
+        @TimerId("firing")
+        private final TimerSpec firingSpec = TimerSpecs.timer(TimeDomain.PROCESSING_TIME);
+
+        @TimerId("end")
+        private final TimerSpec endSpec = TimerSpecs.timer(TimeDomain.EVENT_TIME);
+
+        AggregateFn(Emit emit, Duration firingPeriod, int hllPrecision) {
+            this.emit = emit;
+            this.firingPeriod = firingPeriod;
+            this.hllPrecision = hllPrecision;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext ctx, BoundedWindow window,
+                @StateId("stats") ValueState<RollupStats> stats,
+                @StateId("pending") ValueState<Long> pending,
+                @StateId("closed") ValueState<Boolean> closed,
+                @TimerId("firing") Timer firing,
+                @TimerId("end") Timer end) {
+            RollupStats current = stats.read();
+            if (null == current) {
+                current = RollupStats.create(hllPrecision);
+            }
+            current.add(ctx.element().getValue().getKey(), ctx.element().getValue().getValue());
+            stats.write(current);
+
+            Long count = pending.read();
+            if (null == count || 0L == count) {
+                count = 0L;
+
+                if (null == closed.read()) {
+                    // outputs in the window, like GroupByKey panes with the default timestamp combiner
+                    firing.withOutputTimestamp(window.maxTimestamp()).offset(firingPeriod).setRelative();
+                }
+
+                // already passed if late, fires as soon as the watermark moves
+                end.set(window.maxTimestamp());
+            }
+            pending.write(count + 1);
+        }
+
+        @OnTimer("firing")
+        public void onFiring(OnTimerContext ctx, @Key String dim1,
+                @StateId("stats") ValueState<RollupStats> stats,
+                @StateId("pending") ValueState<Long> pending,
+                @StateId("pane") ValueState<PaneInfo> pane,
+                @StateId("closed") ValueState<Boolean> closed) {
+            // LATE if set before & fired after the end of the window
+            fire(ctx, dim1, stats, pending, pane,
+                null == closed.read() ? PaneInfo.Timing.EARLY : PaneInfo.Timing.LATE, false);
+        }
+
+        @OnTimer("end")
+        public void onEnd(OnTimerContext ctx, @Key String dim1,
+                @StateId("stats") ValueState<RollupStats> stats,
+                @StateId("pending") ValueState<Long> pending,
+                @StateId("pane") ValueState<PaneInfo> pane,
+                @StateId("closed") ValueState<Boolean> closed) {
+            if (null == closed.read()) {
+                closed.write(true);
+                // a snapshot is always fired on time, like accumulating GroupByKey panes
+                fire(ctx, dim1, stats, pending, pane, PaneInfo.Timing.ON_TIME, Emit.SNAPSHOT == emit);
+            } else {
+                fire(ctx, dim1, stats, pending, pane, PaneInfo.Timing.LATE, false);
+            }
+        }
+
+        private void fire(OnTimerContext ctx, String dim1, ValueState<RollupStats> stats,
+                ValueState<Long> pending, ValueState<PaneInfo> pane, PaneInfo.Timing timing,
+                boolean always) {
+            Long count = pending.read();
+            if ((null == count || 0L == count) && !(always && null != pane.read())) {
+                // nothing since the last firing, e.g. an early firing already fired the late data
+                return;
+            }
+
+            PaneInfo last = pane.read();
+            final long index = null == last ? 0L : last.getIndex() + 1;
+            final long onTimeIndex = PaneInfo.Timing.EARLY == timing ? -1L
+                : null == last || -1L == last.getNonSpeculativeIndex() ? 0L
+                : last.getNonSpeculativeIndex() + 1;
+
+            PaneInfo current = PaneInfo.createPane(null == last, false, timing, index, onTimeIndex);
+            ctx.output(KV.of(dim1, KV.of(current, stats.read())));
+
+            pane.write(current);
+            pending.write(0L);
+            if (Emit.DELTA == emit) {
+                stats.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package bindiego.analytics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.tdunning.math.stats.MergingDigest;
+import com.tdunning.math.stats.TDigest;
+
+import org.apache.beam.sdk.coders.ByteArrayCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+
+/**
+ * Approximate percentiles of metrics1 by t-digest, a few KB per sketch whatever the number of
+ * values, instead of collecting the raw values.
+ *
+ * Sketches are mergeable, so the sketch of a discarding pane, a window or a day is the merge
+ * of the sketches of its parts, e.g. a reader of the wide table merges the panes of a window
+ * then the windows of an hour,
+ *
+ *   MergingDigest hour = QuantileSketch.merge(sketchCells);
+ *   double p99 = hour.quantile(0.99);
+ *
+ * Serialized by {@link #toBytes(MergingDigest)}, i.e. the t-digest small encoding.
+ */
+public class QuantileSketch {
+    private QuantileSketch() {} // disable new
+
+    // the t-digest default, ~1% error at the tails
+    public static final double DEFAULT_COMPRESSION = 100D;
+
+    // what the SLO dashboards read, @see BigtableSchema#P50 etc.
+    public static final double[] DEFAULT_QUANTILES = {0.5D, 0.95D, 0.99D};
+
+    public static MergingDigest create() {
+        return new MergingDigest(DEFAULT_COMPRESSION);
+    }
+
+    public static byte[] toBytes(MergingDigest digest) {
+        ByteBuffer buf = ByteBuffer.allocate(digest.smallByteSize());
+        digest.asSmallBytes(buf);
+
+        return buf.array();
+    }
+
+    public static MergingDigest fromBytes(byte[] bytes) {
+        return MergingDigest.fromBytes(ByteBuffer.wrap(bytes));
+    }
+
+    /** Merge serialized sketches, e.g. the panes of a window or the windows of an hour. */
+    public static MergingDigest merge(Iterable<byte[]> sketches) {
+        List<TDigest> digests = new ArrayList<>();
+        for (byte[] sketch : sketches) {
+            digests.add(fromBytes(sketch));
+        }
+
+        MergingDigest merged = create();
+        merged.add(digests);
+
+        return merged;
+    }
+
+    /** The {@link #DEFAULT_QUANTILES} of the sketch, NaN if empty. */
+    public static double[] quantiles(MergingDigest digest) {
+        double[] values = new double[DEFAULT_QUANTILES.length];
+        for (int i = 0; i < DEFAULT_QUANTILES.length; ++i) {
+            values[i] = digest.size() > 0 ? digest.quantile(DEFAULT_QUANTILES[i]) : Double.NaN;
+        }
+
+        return values;
+    }
+
+    public static Fn of() {
+        return new Fn(DEFAULT_COMPRESSION);
+    }
+
+    /** @param compression higher is more accurate & bigger, @see #DEFAULT_COMPRESSION */
+    public static Fn withCompression(double compression) {
+        checkArgument(compression > 0, "compression must be > 0, but was %s", compression);
+        return new Fn(compression);
+    }
+
+    /**
+     * Sketch of the metrics, e.g. Combine.perKey(QuantileSketch.of()), or used as is by
+     * the DoFns aggregating the GroupByKey output.
+     */
+    public static class Fn extends CombineFn<Long, MergingDigest, MergingDigest> {
+        private final double compression;
+
+        private Fn(double compression) {
+            this.compression = compression;
+        }
+
+        @Override
+        public MergingDigest createAccumulator() {
+            return new MergingDigest(compression);
+        }
+
+        @Override
+        public MergingDigest addInput(MergingDigest accumulator, Long input) {
+            accumulator.add(input);
+            return accumulator;
+        }
+
+        @Override
+        public MergingDigest mergeAccumulators(Iterable<MergingDigest> accumulators) {
+            List<TDigest> digests = new ArrayList<>();
+            for (MergingDigest accumulator : accumulators) {
+                digests.add(accumulator);
+            }
+
+            MergingDigest merged = createAccumulator();
+            merged.add(digests);
+
+            return merged;
+        }
+
+        @Override
+        public MergingDigest extractOutput(MergingDigest accumulator) {
+            return accumulator;
+        }
+
+        @Override
+        public Coder<MergingDigest> getAccumulatorCoder(
+                CoderRegistry registry, Coder<Long> inputCoder) {
+            return DigestCoder.of();
+        }
+
+        @Override
+        public Coder<MergingDigest> getDefaultOutputCoder(
+                CoderRegistry registry, Coder<Long> inputCoder) {
+            return DigestCoder.of();
+        }
+    }
+
+    public static class DigestCoder extends CustomCoder<MergingDigest> {
+        private static final DigestCoder INSTANCE = new DigestCoder();
+        private static final Coder<byte[]> BYTES_CODER = ByteArrayCoder.of();
+
+        public static DigestCoder of() {
+            return INSTANCE;
+        }
+
+        @Override
+        public void encode(MergingDigest value, OutputStream outStream) throws IOException {
+            BYTES_CODER.encode(toBytes(value), outStream);
+        }
+
+        @Override
+        public MergingDigest decode(InputStream inStream) throws IOException {
+            return fromBytes(BYTES_CODER.decode(inStream));
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package bindiego.analytics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+
+import com.tdunning.math.stats.MergingDigest;
+
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+
+/**
+ * Mergeable aggregate of metrics1 for a dim1 over a window, i.e. count, sum, min, max, the
+ * quantile sketch and the distinct count sketch. A partial aggregate merges into a coarser one
+ * without the raw events, so the 1m rollup is the merge of the window aggregates, the 1h
+ * rollup the merge of the 1m ones and so on.
+ *
+ * NOT thread safe.
+ */
+public class RollupStats {
+    private long count = 0L;
+    private long sum = 0L;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private MergingDigest sketch;
+    private DistinctSketch.HyperLogLog hll;
+
+    private RollupStats(MergingDigest sketch, DistinctSketch.HyperLogLog hll) {
+        this.sketch = sketch;
+        this.hll = hll;
+    }
+
+    public static RollupStats create(int hllPrecision) {
+        return new RollupStats(QuantileSketch.create(), DistinctSketch.create(hllPrecision));
+    }
+
+    public void add(long metric, String distinctValue) {
+        ++count;
+        sum += metric;
+
+        if (min > metric)
+            min = metric;
+
+        if (max < metric)
+            max = metric;
+
+        sketch.add(metric);
+        hll.add(distinctValue);
+    }
+
+    public void merge(RollupStats other) {
+        if (0 == other.count) {
+            return;
+        }
+
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+
+        sketch.add(Collections.singletonList(other.sketch));
+        hll.merge(other.hll);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getAvg() {
+        return count > 0 ? (double) sum / count : 0D;
+    }
+
+    public MergingDigest getSketch() {
+        return sketch;
+    }
+
+    public DistinctSketch.HyperLogLog getHll() {
+        return hll;
+    }
+
+    /** Merges the partial aggregates, e.g. Combine.perKey(RollupStats.mergeFn(12)). */
+    public static MergeFn mergeFn(int hllPrecision) {
+        return new MergeFn(hllPrecision);
+    }
+
+    public static class MergeFn extends CombineFn<RollupStats, RollupStats, RollupStats> {
+        private final int hllPrecision;
+
+        private MergeFn(int hllPrecision) {
+            this.hllPrecision = hllPrecision;
+        }
+
+        @Override
+        public RollupStats createAccumulator() {
+            return create(hllPrecision);
+        }
+
+        @Override
+        public RollupStats addInput(RollupStats accumulator, RollupStats input) {
+            accumulator.merge(input);
+            return accumulator;
+        }
+
+        @Override
+        public RollupStats mergeAccumulators(Iterable<RollupStats> accumulators) {
+            RollupStats merged = createAccumulator();
+            for (RollupStats accumulator : accumulators) {
+                merged.merge(accumulator);
+            }
+
+            return merged;
+        }
+
+        @Override
+        public RollupStats extractOutput(RollupStats accumulator) {
+            return accumulator;
+        }
+
+        @Override
+        public Coder<RollupStats> getAccumulatorCoder(
+                CoderRegistry registry, Coder<RollupStats> inputCoder) {
+            return RollupStatsCoder.of();
+        }
+
+        @Override
+        public Coder<RollupStats> getDefaultOutputCoder(
+                CoderRegistry registry, Coder<RollupStats> inputCoder) {
+            return RollupStatsCoder.of();
+        }
+    }
+
+    public static class RollupStatsCoder extends CustomCoder<RollupStats> {
+        private static final RollupStatsCoder INSTANCE = new RollupStatsCoder();
+        private static final Coder<Long> LONG_CODER = VarLongCoder.of();
+
+        public static RollupStatsCoder of() {
+            return INSTANCE;
+        }
+
+        @Override
+        public void encode(RollupStats value, OutputStream outStream) throws IOException {
+            LONG_CODER.encode(value.count, outStream);
+            LONG_CODER.encode(value.sum, outStream);
+            LONG_CODER.encode(value.min, outStream);
+            LONG_CODER.encode(value.max, outStream);
+            QuantileSketch.DigestCoder.of().encode(value.sketch, outStream);
+            DistinctSketch.HyperLogLogCoder.of().encode(value.hll, outStream);
+        }
+
+        @Override
+        public RollupStats decode(InputStream inStream) throws IOException {
+            long count = LONG_CODER.decode(inStream);
+            long sum = LONG_CODER.decode(inStream);
+            long min = LONG_CODER.decode(inStream);
+            long max = LONG_CODER.decode(inStream);
+
+            RollupStats stats = new RollupStats(
+                QuantileSketch.DigestCoder.of().decode(inStream),
+                DistinctSketch.HyperLogLogCoder.of().decode(inStream));
+            stats.count = count;
+            stats.sum = sum;
+            stats.min = min;
+            stats.max = max;
+
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package bindiego.analytics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.state.MapState;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timer;
+import org.apache.beam.sdk.state.TimerSpec;
+import org.apache.beam.sdk.state.TimerSpecs;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
+import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+
+/**
+ * Sliding window aggregates, e.g. the last 5 minutes every 10 seconds, assembled from slice
+ * partials instead of SlidingWindows, which copies every element into size / period windows.
+ *
+ * @Input <dim1, RollupStats> partial aggregates of fixed windows, the period must be a
+ *        multiple of their size, e.g. the discarding panes of the --windowSize windows
+ * @Output <dim1, RollupStats> of the sliding window [end - size, end), in the fixed window
+ *         [end - period, end), i.e. the sliding window start is window.end() - size
+ *
+ * Each input merges once into its slice, one slice per period, kept in per key state until it
+ * slides out. An event time timer at every slice end emits the merge of the size / period
+ * slices of the window, as long as the key has data in it. State & CPU are proportional to the
+ * number of slices, not to the overlap.
+ *
+ * NOTE: a partial arriving after a window containing its slice has been emitted only goes
+ * into the windows still to come, windows already emitted are not corrected.
+ */
+public class SlidingAggregator
+        extends PTransform<PCollection<KV<String, RollupStats>>, PCollection<KV<String, RollupStats>>> {
+
+    private final Duration size;
+    private final Duration period;
+    private final int hllPrecision;
+
+    private SlidingAggregator(Duration size, Duration period, int hllPrecision) {
+        this.size = size;
+        this.period = period;
+        this.hllPrecision = hllPrecision;
+    }
+
+    /** @param size multiple of period */
+    public static SlidingAggregator of(Duration size, Duration period, int hllPrecision) {
+        checkArgument(period.getMillis() > 0, "period must be > 0, but was %s", period);
+        checkArgument(size.getMillis() > period.getMillis() && 0 == size.getMillis() % period.getMillis(),
+            "size %s must be a multiple of period %s", size, period);
+        return new SlidingAggregator(size, period, hllPrecision);
+    }
+
+    public Duration getSize() {
+        return size;
+    }
+
+    @Override
+    public PCollection<KV<String, RollupStats>> expand(PCollection<KV<String, RollupStats>> input) {
+        return input
+            .apply("Slices in global window", Window.<KV<String, RollupStats>>into(new GlobalWindows()))
+            .apply("Assemble sliding windows from slices",
+                ParDo.of(new SliceFn(size.getMillis(), period.getMillis(), hllPrecision)))
+            .setCoder(KvCoder.of(StringUtf8Coder.of(), RollupStats.RollupStatsCoder.of()))
+            .apply("Sliding windows by end", Window.<KV<String, RollupStats>>into(FixedWindows.of(period)));
+    }
+
+    static class SliceFn extends DoFn<KV<String, RollupStats>, KV<String, RollupStats>> {
+        private final long size;
+        private final long period;
+        private final int hllPrecision;
+
+        // slice start -> partial aggregate of the slice
+        @StateId("slices")
+        private final StateSpec<MapState<Long, RollupStats>> slicesSpec =
+            StateSpecs.map(VarLongCoder.of(), RollupStats.RollupStatsCoder.of());
+
+        // end of the next sliding window to emit, null if none pending
+        @StateId("nextEnd")
+        private final StateSpec<ValueState<Long>> nextEndSpec = StateSpecs.value(VarLongCoder.of());
+
+        // end of the last sliding window emitted
+        @StateId("lastEnd")
+        private final StateSpec<ValueState<Long>> lastEndSpec = StateSpecs.value(VarLongCoder.of());
+
+        @TimerId("emit")
+        private final TimerSpec emitSpec = TimerSpecs.timer(TimeDomain.EVENT_TIME);
+
+        SliceFn(long size, long period, int hllPrecision) {
+            this.size = size;
+            this.period = period;
+            this.hllPrecision = hllPrecision;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext ctx,
+                @StateId("slices") MapState<Long, RollupStats> slices,
+                @StateId("nextEnd") ValueState<Long> nextEnd,
+                @StateId("lastEnd") ValueState<Long> lastEnd,
+                @TimerId("emit") Timer emit) {
+            // partials carry the end of their fixed window as timestamp
+            final long ts = ctx.timestamp().getMillis();
+            final long sliceStart = ts - Math.floorMod(ts, period);
+
+            // the first window to contain this slice ends with it, unless already emitted
+            long firstEnd = sliceStart + period;
+            Long last = lastEnd.read();
+            if (null != last && firstEnd <= last) {
+                firstEnd = last + period;
+
+                if (sliceStart < firstEnd - size) {
+                    // slid out of all the windows to come
+                    return;
+                }
+            }
+
+            RollupStats slice = slices.get(sliceStart).read();
+            if (null == slice) {
+                slice = RollupStats.create(hllPrecision);
+            }
+            slice.merge(ctx.element().getValue());
+            slices.put(sliceStart, slice);
+
+            Long pending = nextEnd.read();
+            if (null == pending || pending > firstEnd) {
+                setTimer(emit, nextEnd, firstEnd);
+            }
+        }
+
+        @OnTimer("emit")
+        public void onEmit(OnTimerContext ctx,
+                @Key String dim1,
+                @StateId("slices") MapState<Long, RollupStats> slices,
+                @StateId("nextEnd") ValueState<Long> nextEnd,
+                @StateId("lastEnd") ValueState<Long> lastEnd,
+                @TimerId("emit") Timer emit) {
+            final long end = nextEnd.read();
+            final long start = end - size;
+
+            RollupStats window = RollupStats.create(hllPrecision);
+            List<Long> expired = new ArrayList<>();
+            boolean remaining = false;
+
+            for (Map.Entry<Long, RollupStats> slice : slices.entries().read()) {
+                final long sliceStart = slice.getKey();
+
+                if (sliceStart >= start && sliceStart < end) {
+                    window.merge(slice.getValue());
+                }
+
+                if (sliceStart < start + period) {
+                    // not in the next window anymore
+                    expired.add(sliceStart);
+                } else {
+                    remaining = true;
+                }
+            }
+
+            if (window.getCount() > 0) {
+                ctx.output(KV.of(dim1, window));
+            }
+            lastEnd.write(end);
+
+            for (Long sliceStart : expired) {
+                slices.remove(sliceStart);
+            }
+
+            if (remaining) {
+                setTimer(emit, nextEnd, end + period);
+            } else {
+                nextEnd.clear();
+            }
+        }
+
+        // fire at the window end, emit in the window, i.e. end - 1
+        private void setTimer(Timer emit, ValueState<Long> nextEnd, long end) {
+            emit.withOutputTimestamp(new Instant(end - 1)).set(new Instant(end));
+            nextEnd.write(end);
+        }
+    }
+}
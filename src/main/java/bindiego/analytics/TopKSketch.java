@@ -0,0 +1,302 @@
+package bindiego.analytics;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.CoderRegistry;
+import org.apache.beam.sdk.coders.CustomCoder;
+import org.apache.beam.sdk.coders.ListCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.transforms.Combine.CombineFn;
+import org.apache.beam.sdk.values.KV;
+
+/**
+ * Weighted top K heavy hitters, e.g. the top thread_name by metrics1 per window, by the
+ * Space-Saving algorithm. Memory is bounded by the capacity (number of monitored items)
+ * whatever the number of distinct items.
+ *
+ * An item's weight is over-estimated by at most its error, the weight of the item it evicted,
+ * so an item with weight - error above the K-th weight is guaranteed to be in the top K.
+ * Capacity defaults to 10 * K, the bigger the capacity the smaller the errors.
+ *
+ * Summaries are mergeable (Agarwal et al., Mergeable Summaries), i.e. usable as the
+ * accumulator of a Combine across bundles, panes or windows.
+ *
+ *   input.apply(Combine.globally(TopKSketch.of(10)).withoutDefaults())
+ *        // List<TopKSketch.Ranked>, highest weight first
+ */
+public class TopKSketch {
+    private TopKSketch() {} // disable new
+
+    public static final int DEFAULT_CAPACITY_FACTOR = 10;
+
+    public static Fn of(int k) {
+        return withCapacity(k, DEFAULT_CAPACITY_FACTOR * k);
+    }
+
+    /** @param capacity number of monitored items, >= k */
+    public static Fn withCapacity(int k, int capacity) {
+        checkArgument(k > 0, "k must be > 0, but was %s", k);
+        checkArgument(capacity >= k, "capacity must be >= k (%s), but was %s", k, capacity);
+        return new Fn(k, capacity);
+    }
+
+    /** An item of the top K, ranked from 1. */
+    public static class Ranked implements Serializable {
+        private final int rank;
+        private final String item;
+        private final long weight;
+        private final long error;
+
+        Ranked(int rank, String item, long weight, long error) {
+            this.rank = rank;
+            this.item = item;
+            this.weight = weight;
+            this.error = error;
+        }
+
+        public int getRank() {
+            return rank;
+        }
+
+        public String getItem() {
+            return item;
+        }
+
+        // estimated, i.e. true weight in [weight - error, weight]
+        public long getWeight() {
+            return weight;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return rank + ":" + item + "=" + weight + "(+-" + error + ")";
+        }
+    }
+
+    /** Space-Saving summary. NOT thread safe. */
+    public static class Summary {
+        private final int capacity;
+        private final Map<String, Counter> counters = new HashMap<>();
+        // ordered by weight then item, first is the one to evict
+        private final TreeSet<Counter> byWeight = new TreeSet<>();
+
+        Summary(int capacity) {
+            this.capacity = capacity;
+        }
+
+        public void add(String item, long weight) {
+            Counter counter = counters.get(item);
+            if (null != counter) {
+                byWeight.remove(counter);
+                counter.weight += weight;
+                byWeight.add(counter);
+                return;
+            }
+
+            if (counters.size() < capacity) {
+                put(new Counter(item, weight, 0L));
+                return;
+            }
+
+            // replace the lightest, the newcomer might have had its weight all along
+            Counter min = byWeight.pollFirst();
+            counters.remove(min.item);
+            put(new Counter(item, min.weight + weight, min.weight));
+        }
+
+        private void put(Counter counter) {
+            counters.put(counter.item, counter);
+            byWeight.add(counter);
+        }
+
+        // weight an item not monitored could have
+        private long minWeight() {
+            return counters.size() < capacity || byWeight.isEmpty() ? 0L : byWeight.first().weight;
+        }
+
+        /** Merge, then keep the heaviest capacity items. */
+        public void merge(Summary other) {
+            final long minThis = minWeight();
+            final long minOther = other.minWeight();
+
+            Set<String> items = new HashSet<>(counters.keySet());
+            items.addAll(other.counters.keySet());
+
+            List<Counter> merged = new ArrayList<>(items.size());
+            for (String item : items) {
+                Counter mine = counters.get(item);
+                Counter theirs = other.counters.get(item);
+
+                merged.add(new Counter(item,
+                    (null == mine ? minThis : mine.weight) + (null == theirs ? minOther : theirs.weight),
+                    (null == mine ? minThis : mine.error) + (null == theirs ? minOther : theirs.error)));
+            }
+
+            Collections.sort(merged, Collections.reverseOrder());
+
+            counters.clear();
+            byWeight.clear();
+            for (Counter counter : merged.subList(0, Math.min(capacity, merged.size()))) {
+                put(counter);
+            }
+        }
+
+        /** Top k items, highest weight first. */
+        public List<Ranked> top(int k) {
+            List<Ranked> top = new ArrayList<>(Math.min(k, counters.size()));
+            for (Counter counter : byWeight.descendingSet()) {
+                if (top.size() >= k) {
+                    break;
+                }
+                top.add(new Ranked(top.size() + 1, counter.item, counter.weight, counter.error));
+            }
+
+            return top;
+        }
+    }
+
+    private static class Counter implements Comparable<Counter> {
+        final String item;
+        long weight;
+        final long error;
+
+        Counter(String item, long weight, long error) {
+            this.item = item;
+            this.weight = weight;
+            this.error = error;
+        }
+
+        @Override
+        public int compareTo(Counter other) {
+            int cmp = Long.compare(weight, other.weight);
+            return 0 != cmp ? cmp : item.compareTo(other.item);
+        }
+    }
+
+    /** @Input <item, weight> */
+    public static class Fn extends CombineFn<KV<String, Long>, Summary, List<Ranked>> {
+        private final int k;
+        private final int capacity;
+
+        private Fn(int k, int capacity) {
+            this.k = k;
+            this.capacity = capacity;
+        }
+
+        @Override
+        public Summary createAccumulator() {
+            return new Summary(capacity);
+        }
+
+        @Override
+        public Summary addInput(Summary accumulator, KV<String, Long> input) {
+            accumulator.add(input.getKey(), input.getValue());
+            return accumulator;
+        }
+
+        @Override
+        public Summary mergeAccumulators(Iterable<Summary> accumulators) {
+            Summary merged = createAccumulator();
+            for (Summary accumulator : accumulators) {
+                merged.merge(accumulator);
+            }
+
+            return merged;
+        }
+
+        @Override
+        public List<Ranked> extractOutput(Summary accumulator) {
+            return accumulator.top(k);
+        }
+
+        @Override
+        public Coder<Summary> getAccumulatorCoder(
+                CoderRegistry registry, Coder<KV<String, Long>> inputCoder) {
+            return SummaryCoder.of();
+        }
+
+        @Override
+        public Coder<List<Ranked>> getDefaultOutputCoder(
+                CoderRegistry registry, Coder<KV<String, Long>> inputCoder) {
+            return ListCoder.of(RankedCoder.of());
+        }
+    }
+
+    public static class SummaryCoder extends CustomCoder<Summary> {
+        private static final SummaryCoder INSTANCE = new SummaryCoder();
+
+        public static SummaryCoder of() {
+            return INSTANCE;
+        }
+
+        @Override
+        public void encode(Summary value, OutputStream outStream) throws IOException {
+            VarIntCoder.of().encode(value.capacity, outStream);
+            VarIntCoder.of().encode(value.counters.size(), outStream);
+            for (Counter counter : value.byWeight) {
+                StringUtf8Coder.of().encode(counter.item, outStream);
+                VarLongCoder.of().encode(counter.weight, outStream);
+                VarLongCoder.of().encode(counter.error, outStream);
+            }
+        }
+
+        @Override
+        public Summary decode(InputStream inStream) throws IOException {
+            Summary summary = new Summary(VarIntCoder.of().decode(inStream));
+            int size = VarIntCoder.of().decode(inStream);
+            for (int i = 0; i < size; ++i) {
+                summary.put(new Counter(
+                    StringUtf8Coder.of().decode(inStream),
+                    VarLongCoder.of().decode(inStream),
+                    VarLongCoder.of().decode(inStream)));
+            }
+
+            return summary;
+        }
+    }
+
+    public static class RankedCoder extends CustomCoder<Ranked> {
+        private static final RankedCoder INSTANCE = new RankedCoder();
+
+        public static RankedCoder of() {
+            return INSTANCE;
+        }
+
+        @Override
+        public void encode(Ranked value, OutputStream outStream) throws IOException {
+            VarIntCoder.of().encode(value.rank, outStream);
+            StringUtf8Coder.of().encode(value.item, outStream);
+            VarLongCoder.of().encode(value.weight, outStream);
+            VarLongCoder.of().encode(value.error, outStream);
+        }
+
+        @Override
+        public Ranked decode(InputStream inStream) throws IOException {
+            return new Ranked(
+                VarIntCoder.of().decode(inStream),
+                StringUtf8Coder.of().decode(inStream),
+                VarLongCoder.of().decode(inStream),
+                VarLongCoder.of().decode(inStream));
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package bindiego.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.google.api.services.bigquery.model.Clustering;
+import com.google.api.services.bigquery.model.TableSchema;
+import com.google.api.services.bigquery.model.TimePartitioning;
+
+import org.joda.time.Instant;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import org.apache.beam.sdk.io.gcp.bigquery.DynamicDestinations;
+import org.apache.beam.sdk.io.gcp.bigquery.TableDestination;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.values.ValueInSingleWindow;
+
+/**
+ * Routes the rows of one BigQuery output to
+ *   - DIM1: a table per dim1, i.e. <table>_<dim1>, dim1 with anything but letters, digits
+ *           & underscores replaced by underscores
+ *   - PARTITION: the partition of their event time, i.e. <table>$yyyyMMdd or $yyyyMMddHH,
+ *           so a load job or stream only touches one partition
+ *
+ * All the tables are created time partitioned & clustered the same way, from the same schema.
+ *
+ * NOTE: the partition decorator must match the partitioning column of the row, i.e. eventTsFn
+ * has to return the partitioning column, not e.g. the processing time.
+ */
+public class BigQueryDestinations<T> extends DynamicDestinations<T, String> {
+
+    public enum Routing {
+        TABLE,
+        DIM1,
+        PARTITION
+    }
+
+    private static final Pattern INVALID_TABLE_CHARS = Pattern.compile("[^A-Za-z0-9_]");
+
+    private static final DateTimeFormatter DAY_DECORATOR =
+        DateTimeFormat.forPattern("yyyyMMdd").withZoneUTC();
+    private static final DateTimeFormatter HOUR_DECORATOR =
+        DateTimeFormat.forPattern("yyyyMMddHH").withZoneUTC();
+
+    private final Routing routing;
+    private final ValueProvider<String> table;
+    private final ValueProvider<TableSchema> schema;
+    private final String partitionField;
+    private final String partitionType;
+    private final ArrayList<String> clusteringFields;
+    private final SerializableFunction<T, String> dim1Fn;
+    private final SerializableFunction<T, Instant> eventTsFn;
+
+    private BigQueryDestinations(Routing routing, ValueProvider<String> table,
+            ValueProvider<TableSchema> schema, String partitionField, String partitionType,
+            List<String> clusteringFields, SerializableFunction<T, String> dim1Fn,
+            SerializableFunction<T, Instant> eventTsFn) {
+        this.routing = routing;
+        this.table = table;
+        this.schema = schema;
+        this.partitionField = partitionField;
+        this.partitionType = partitionType;
+        this.clusteringFields = new ArrayList<>(clusteringFields);
+        this.dim1Fn = dim1Fn;
+        this.eventTsFn = eventTsFn;
+    }
+
+    /**
+     * @param partitionType DAY or HOUR
+     * @param clusteringFields empty for no clustering
+     */
+    public static <T> BigQueryDestinations<T> of(Routing routing, ValueProvider<String> table,
+            ValueProvider<TableSchema> schema, String partitionField, String partitionType,
+            List<String> clusteringFields, SerializableFunction<T, String> dim1Fn,
+            SerializableFunction<T, Instant> eventTsFn) {
+        checkArgument(Routing.TABLE != routing, "a single table needs no dynamic destinations");
+        checkArgument("DAY".equals(partitionType) || "HOUR".equals(partitionType),
+            "partition type must be DAY or HOUR, but was %s", partitionType);
+        return new BigQueryDestinations<>(routing, table, schema, partitionField, partitionType,
+            clusteringFields, dim1Fn, eventTsFn);
+    }
+
+    @Override
+    public String getDestination(ValueInSingleWindow<T> element) {
+        switch (routing) {
+            case DIM1:
+                return table.get() + "_"
+                    + INVALID_TABLE_CHARS.matcher(dim1Fn.apply(element.getValue())).replaceAll("_");
+            default:
+                final Instant eventTs = eventTsFn.apply(element.getValue());
+                return table.get() + "$"
+                    + ("HOUR".equals(partitionType) ? HOUR_DECORATOR : DAY_DECORATOR).print(eventTs);
+        }
+    }
+
+    @Override
+    public TableDestination getTable(String destination) {
+        return new TableDestination(destination, null, timePartitioning(partitionField, partitionType),
+            clustering(clusteringFields));
+    }
+
+    @Override
+    public TableSchema getSchema(String destination) {
+        return schema.get();
+    }
+
+    public static TimePartitioning timePartitioning(String field, String type) {
+        return new TimePartitioning().setField(field).setType(type).setExpirationMs(null);
+    }
+
+    /** @return null if no fields */
+    public static Clustering clustering(List<String> fields) {
+        return fields.isEmpty() ? null : new Clustering().setFields(fields);
+    }
+}
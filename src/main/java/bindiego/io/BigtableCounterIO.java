@@ -0,0 +1,208 @@
+package bindiego.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.auto.value.AutoValue;
+import com.google.cloud.bigtable.beam.AbstractCloudBigtableTableDoFn;
+import com.google.cloud.bigtable.beam.CloudBigtableTableConfiguration;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Increment;
+import org.apache.hadoop.hbase.client.Row;
+import org.apache.hadoop.hbase.client.Table;
+
+import static org.apache.beam.vendor.guava.v26_0_jre.com.google.common.base.Preconditions.checkArgument;
+import static org.apache.beam.vendor.guava.v26_0_jre.com.google.common.base.Preconditions.checkState;
+
+import org.apache.beam.sdk.annotations.Experimental;
+import org.apache.beam.sdk.annotations.Experimental.Kind;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PDone;
+
+/**
+ * Running totals per dim1 in Bigtable, kept by server side increments (ReadModifyWriteRow)
+ * on one counter row per dim1 per hour or day, so live counters are a point read instead of
+ * a scan over the tall table.
+ *
+ * @Input <dim1, <num_records delta, sum delta>>, i.e. from panes fired in discarding mode
+ *
+ * Row key: <dim1>#<bucket start, 8 bytes>, @see BigtableSchema#counterRowKey, salted
+ *          by the {@link RowKeyStrategy} if any
+ * Cells: stats:num_records, stats:sum as 8 bytes big-endian longs
+ *
+ * Deltas of the same row are coalesced within a bundle before sending.
+ *
+ * NOTE: increments are NOT idempotent, a retried bundle counts its deltas again.
+ */
+@Experimental(Kind.SOURCE_SINK)
+public class BigtableCounterIO {
+    private BigtableCounterIO() {} // disable new
+
+    public static Write write() {
+        return new AutoValue_BigtableCounterIO_Write.Builder()
+            .setGranularity(Granularity.DAY)
+            .setMaxBatchSize(1000)
+            .setRowKeyStrategy(RowKeyStrategy.none())
+            .build();
+    }
+
+    /** Time span of a counter row, in UTC. */
+    public enum Granularity {
+        HOUR(60L * 60L * 1000L),
+        DAY(24L * 60L * 60L * 1000L);
+
+        private final long millis;
+
+        Granularity(long millis) {
+            this.millis = millis;
+        }
+
+        public long bucketStart(long ts) {
+            return ts - Math.floorMod(ts, millis);
+        }
+    }
+
+    @AutoValue
+    public abstract static class Write
+            extends PTransform<PCollection<KV<String, KV<Long, Long>>>, PDone> {
+
+        @Nullable
+        abstract CloudBigtableTableConfiguration getTableConf();
+
+        abstract Granularity getGranularity();
+
+        abstract int getMaxBatchSize();
+
+        abstract RowKeyStrategy getRowKeyStrategy();
+
+        abstract Builder builder();
+
+        @AutoValue.Builder
+        abstract static class Builder {
+            abstract Builder setTableConf(CloudBigtableTableConfiguration tableConf);
+
+            abstract Builder setGranularity(Granularity granularity);
+
+            abstract Builder setMaxBatchSize(int maxBatchSize);
+
+            abstract Builder setRowKeyStrategy(RowKeyStrategy rowKeyStrategy);
+
+            abstract Write build();
+        }
+
+        public Write withTableConf(CloudBigtableTableConfiguration tableConf) {
+            checkArgument(tableConf != null, "tableConf can not be null");
+            return builder().setTableConf(tableConf).build();
+        }
+
+        public Write withGranularity(Granularity granularity) {
+            checkArgument(granularity != null, "granularity can not be null");
+            return builder().setGranularity(granularity).build();
+        }
+
+        // max number of distinct counter rows buffered before sending
+        public Write withMaxBatchSize(int batchSize) {
+            checkArgument(batchSize > 0, "batchSize must be > 0, but was %s", batchSize);
+            return builder().setMaxBatchSize(batchSize).build();
+        }
+
+        public Write withRowKeyStrategy(RowKeyStrategy rowKeyStrategy) {
+            checkArgument(rowKeyStrategy != null, "rowKeyStrategy can not be null");
+            return builder().setRowKeyStrategy(rowKeyStrategy).build();
+        }
+
+        @Override
+        public PDone expand(PCollection<KV<String, KV<Long, Long>>> input) {
+            checkState(null != getTableConf(), "withTableConf() is required");
+
+            input.apply(ParDo.of(new IncrementFn(this)));
+            return PDone.in(input.getPipeline());
+        }
+    }
+
+    static class IncrementFn extends AbstractCloudBigtableTableDoFn<KV<String, KV<Long, Long>>, Void> {
+        private static final Counter deltas =
+            Metrics.counter(BigtableCounterIO.class, "bt_counter_deltas");
+        private static final Counter increments =
+            Metrics.counter(BigtableCounterIO.class, "bt_counter_increments");
+
+        private final Write spec;
+        // counter row key -> [num_records, sum]
+        private transient Map<ByteBuffer, long[]> buffer;
+
+        IncrementFn(Write spec) {
+            super(spec.getTableConf());
+            this.spec = spec;
+        }
+
+        @StartBundle
+        public void startBundle() {
+            buffer = new HashMap<>();
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext ctx, BoundedWindow window) throws Exception {
+            long ts = window instanceof IntervalWindow
+                ? ((IntervalWindow) window).start().getMillis()
+                : ctx.timestamp().getMillis();
+
+            ByteBuffer rowKey = ByteBuffer.wrap(spec.getRowKeyStrategy().apply(
+                BigtableSchema.counterRowKey(
+                    ctx.element().getKey(), spec.getGranularity().bucketStart(ts))));
+
+            long[] total = buffer.get(rowKey);
+            if (null == total) {
+                total = new long[2];
+                buffer.put(rowKey, total);
+            }
+
+            total[0] += ctx.element().getValue().getKey();
+            total[1] += ctx.element().getValue().getValue();
+            deltas.inc();
+
+            if (buffer.size() >= spec.getMaxBatchSize()) {
+                flush();
+            }
+        }
+
+        @FinishBundle
+        public void finishBundle() throws Exception {
+            flush();
+        }
+
+        private void flush() throws IOException, InterruptedException {
+            if (buffer.isEmpty()) {
+                return;
+            }
+
+            List<Row> batch = new ArrayList<>(buffer.size());
+            for (Map.Entry<ByteBuffer, long[]> entry : buffer.entrySet()) {
+                batch.add(new Increment(entry.getKey().array())
+                    .addColumn(BigtableSchema.STATS_CF, BigtableSchema.NUM_RECORDS, entry.getValue()[0])
+                    .addColumn(BigtableSchema.STATS_CF, BigtableSchema.SUM, entry.getValue()[1]));
+            }
+
+            try (Table table = getConnection().getTable(
+                    TableName.valueOf(spec.getTableConf().getTableId()))) {
+                table.batch(batch, new Object[batch.size()]);
+            }
+
+            increments.inc(batch.size());
+            buffer.clear();
+        }
+    }
+}
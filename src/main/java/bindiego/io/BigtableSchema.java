@@ -0,0 +1,292 @@
+package bindiego.io;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import org.apache.beam.sdk.transforms.windowing.IntervalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+
+/**
+ * Column families, qualifiers, row keys & cell encoding of the Bigtable/HBase tall and wide
+ * tables, shared by the writers and whoever reads the tables.
+ *
+ * Numbers are fixed width big-endian, i.e. 8 bytes long / double, 1 byte boolean, which is
+ * what Bigtable ReadModifyWrite increments expect for longs.
+ *
+ * Row keys:
+ *   tall: <dim1>#<Long.MAX_VALUE - process_ts, 8 bytes>
+ *   wide: <dim1>#<window start, 8 bytes><window end, 8 bytes>
+ *   counter: <dim1>#<hour or day start, 8 bytes>
+ *   top K: <csv column index>#<window start, 8 bytes><window end, 8 bytes>
+ * optionally salted by a bucket byte in front, @see RowKeyStrategy
+ *
+ * e.g. read a tall table cell back,
+ *   long count = BigtableSchema.decodeLong(result.getValue(STATS_CF, NUM_RECORDS));
+ *   long processTs = BigtableSchema.decodeTallTimestamp(rowKeys.strip(result.getRow()));
+ */
+public class BigtableSchema {
+    private BigtableSchema() {} // disable new
+
+    public static final byte ROW_KEY_DELIMITER = '#';
+
+    /* column families */
+    public static final byte[] STATS_CF = Bytes.toBytes("stats");
+    public static final byte[] WINDOW_INFO_CF = Bytes.toBytes("window_info");
+
+    /* stats qualifiers */
+    public static final String NUM_RECORDS_NAME = "num_records";
+    public static final String SUM_NAME = "sum";
+    public static final String MIN_NAME = "min";
+    public static final String MAX_NAME = "max";
+    public static final String AVG_NAME = "avg";
+    public static final String SKETCH_NAME = "sketch";
+    public static final String P50_NAME = "p50";
+    public static final String P95_NAME = "p95";
+    public static final String P99_NAME = "p99";
+    public static final String DISTINCT_NAME = "distinct";
+    public static final String HLL_NAME = "hll";
+
+    public static final byte[] NUM_RECORDS = Bytes.toBytes(NUM_RECORDS_NAME);
+    public static final byte[] SUM = Bytes.toBytes(SUM_NAME);
+    public static final byte[] MIN = Bytes.toBytes(MIN_NAME);
+    public static final byte[] MAX = Bytes.toBytes(MAX_NAME);
+    public static final byte[] AVG = Bytes.toBytes(AVG_NAME);
+    // serialized t-digest of metrics1, @see bindiego.analytics.QuantileSketch
+    public static final byte[] SKETCH = Bytes.toBytes(SKETCH_NAME);
+    public static final byte[] P50 = Bytes.toBytes(P50_NAME);
+    public static final byte[] P95 = Bytes.toBytes(P95_NAME);
+    public static final byte[] P99 = Bytes.toBytes(P99_NAME);
+
+    // approximate distinct count & its serialized HLL, @see bindiego.analytics.DistinctSketch
+    public static final byte[] DISTINCT = Bytes.toBytes(DISTINCT_NAME);
+    public static final byte[] HLL = Bytes.toBytes(HLL_NAME);
+
+    // in the order of QuantileSketch.DEFAULT_QUANTILES
+    public static final byte[][] QUANTILES = {P50, P95, P99};
+
+    /* window_info qualifiers */
+    public static final byte[] WINDOW = Bytes.toBytes("window");
+    public static final byte[] PANE = Bytes.toBytes("pane");
+    public static final byte[] PANE_IDX = Bytes.toBytes("pane_idx");
+    public static final byte[] PANE_NONSPECULATIVE_IDX = Bytes.toBytes("pane_nonspeculative_idx");
+    public static final byte[] IS_FIRST = Bytes.toBytes("is_first");
+    public static final byte[] IS_LAST = Bytes.toBytes("is_last");
+    public static final byte[] TIMING = Bytes.toBytes("timing");
+    public static final byte[] WIN_START_TS = Bytes.toBytes("win_start_ts");
+    public static final byte[] WIN_END_TS = Bytes.toBytes("win_end_ts");
+
+    // window_info qualifiers in the order of windowInfoValues()
+    private static final byte[][] WINDOW_INFO_QUALIFIERS = {
+        WINDOW, PANE, PANE_IDX, PANE_NONSPECULATIVE_IDX, IS_FIRST, IS_LAST, TIMING,
+        WIN_START_TS, WIN_END_TS
+    };
+
+    /**
+     * Encoded window_info cells of a window & pane, the same for every row of the pane,
+     * so compute it once, e.g. with a {@link bindiego.utils.WindowInfoCache}.
+     */
+    public static byte[][] windowInfoValues(IntervalWindow window, PaneInfo pane) {
+        return new byte[][] {
+            Bytes.toBytes(window.toString()),
+            Bytes.toBytes(pane.toString()),
+            Bytes.toBytes(pane.getIndex()),
+            Bytes.toBytes(pane.getNonSpeculativeIndex()),
+            Bytes.toBytes(pane.isFirst()),
+            Bytes.toBytes(pane.isLast()),
+            Bytes.toBytes(pane.getTiming().toString()),
+            Bytes.toBytes(window.start().getMillis()),
+            Bytes.toBytes(window.end().getMillis())
+        };
+    }
+
+    // add the window_info cells, @see windowInfoValues
+    public static Put addWindowInfo(Put put, byte[][] windowInfoValues) {
+        for (int i = 0; i < WINDOW_INFO_QUALIFIERS.length; ++i) {
+            put.addColumn(WINDOW_INFO_CF, WINDOW_INFO_QUALIFIERS[i], windowInfoValues[i]);
+        }
+
+        return put;
+    }
+
+    /* top K table qualifiers, <name>#<rank> */
+    private static final byte[][] TOPK_ITEM_BY_RANK = paneQualifiers("item");
+    private static final byte[][] TOPK_WEIGHT_BY_RANK = paneQualifiers("weight");
+    private static final byte[][] TOPK_ERROR_BY_RANK = paneQualifiers("error");
+
+    public static byte[] topKItemQualifier(int rank) {
+        return paneQualifier(TOPK_ITEM_BY_RANK, "item", rank);
+    }
+
+    public static byte[] topKWeightQualifier(int rank) {
+        return paneQualifier(TOPK_WEIGHT_BY_RANK, "weight", rank);
+    }
+
+    public static byte[] topKErrorQualifier(int rank) {
+        return paneQualifier(TOPK_ERROR_BY_RANK, "error", rank);
+    }
+
+    /* wide table qualifiers, <stat>#<pane index>, cached for the first panes */
+    private static final int CACHED_PANES = 128;
+    private static final byte[][] NUM_RECORDS_BY_PANE = paneQualifiers(NUM_RECORDS_NAME);
+    private static final byte[][] SUM_BY_PANE = paneQualifiers(SUM_NAME);
+    private static final byte[][] MIN_BY_PANE = paneQualifiers(MIN_NAME);
+    private static final byte[][] MAX_BY_PANE = paneQualifiers(MAX_NAME);
+    private static final byte[][] AVG_BY_PANE = paneQualifiers(AVG_NAME);
+    private static final byte[][] SKETCH_BY_PANE = paneQualifiers(SKETCH_NAME);
+    private static final byte[][] DISTINCT_BY_PANE = paneQualifiers(DISTINCT_NAME);
+    private static final byte[][] HLL_BY_PANE = paneQualifiers(HLL_NAME);
+    private static final String[] QUANTILE_NAMES = {P50_NAME, P95_NAME, P99_NAME};
+    private static final byte[][][] QUANTILES_BY_PANE = {
+        paneQualifiers(P50_NAME), paneQualifiers(P95_NAME), paneQualifiers(P99_NAME)
+    };
+
+    public static byte[] numRecordsQualifier(long paneIdx) {
+        return paneQualifier(NUM_RECORDS_BY_PANE, NUM_RECORDS_NAME, paneIdx);
+    }
+
+    public static byte[] sumQualifier(long paneIdx) {
+        return paneQualifier(SUM_BY_PANE, SUM_NAME, paneIdx);
+    }
+
+    public static byte[] minQualifier(long paneIdx) {
+        return paneQualifier(MIN_BY_PANE, MIN_NAME, paneIdx);
+    }
+
+    public static byte[] maxQualifier(long paneIdx) {
+        return paneQualifier(MAX_BY_PANE, MAX_NAME, paneIdx);
+    }
+
+    public static byte[] avgQualifier(long paneIdx) {
+        return paneQualifier(AVG_BY_PANE, AVG_NAME, paneIdx);
+    }
+
+    public static byte[] sketchQualifier(long paneIdx) {
+        return paneQualifier(SKETCH_BY_PANE, SKETCH_NAME, paneIdx);
+    }
+
+    public static byte[] distinctQualifier(long paneIdx) {
+        return paneQualifier(DISTINCT_BY_PANE, DISTINCT_NAME, paneIdx);
+    }
+
+    public static byte[] hllQualifier(long paneIdx) {
+        return paneQualifier(HLL_BY_PANE, HLL_NAME, paneIdx);
+    }
+
+    // i-th of QuantileSketch.DEFAULT_QUANTILES
+    public static byte[] quantileQualifier(int i, long paneIdx) {
+        return paneQualifier(QUANTILES_BY_PANE[i], QUANTILE_NAMES[i], paneIdx);
+    }
+
+    private static byte[][] paneQualifiers(String name) {
+        byte[][] qualifiers = new byte[CACHED_PANES][];
+        for (int i = 0; i < CACHED_PANES; ++i) {
+            qualifiers[i] = Bytes.toBytes(name + '#' + i);
+        }
+
+        return qualifiers;
+    }
+
+    private static byte[] paneQualifier(byte[][] cache, String name, long paneIdx) {
+        return paneIdx >= 0 && paneIdx < CACHED_PANES
+            ? cache[(int) paneIdx]
+            : Bytes.toBytes(name + '#' + paneIdx);
+    }
+
+    /* row keys */
+
+    // <dim1>#<Long.MAX_VALUE - processTs>, latest first when scanning a dim1
+    public static byte[] tallRowKey(String dim1, long processTs) {
+        byte[] prefix = rowKeyPrefix(dim1);
+        byte[] rowKey = Arrays.copyOf(prefix, prefix.length + Bytes.SIZEOF_LONG);
+        Bytes.putLong(rowKey, prefix.length, Long.MAX_VALUE - processTs);
+
+        return rowKey;
+    }
+
+    // <dim1>#<window start><window end>
+    public static byte[] wideRowKey(String dim1, long windowStart, long windowEnd) {
+        byte[] prefix = rowKeyPrefix(dim1);
+        byte[] rowKey = Arrays.copyOf(prefix, prefix.length + 2 * Bytes.SIZEOF_LONG);
+        Bytes.putLong(rowKey, prefix.length, windowStart);
+        Bytes.putLong(rowKey, prefix.length + Bytes.SIZEOF_LONG, windowEnd);
+
+        return rowKey;
+    }
+
+    // <column index>#<window start><window end>, the leaderboard of a csv column per window
+    public static byte[] topKRowKey(int column, long windowStart, long windowEnd) {
+        return wideRowKey(String.valueOf(column), windowStart, windowEnd);
+    }
+
+    // <dim1>#<bucket start>, one row per dim1 per hour/day, @see BigtableCounterIO
+    public static byte[] counterRowKey(String dim1, long bucketStart) {
+        byte[] prefix = rowKeyPrefix(dim1);
+        byte[] rowKey = Arrays.copyOf(prefix, prefix.length + Bytes.SIZEOF_LONG);
+        Bytes.putLong(rowKey, prefix.length, bucketStart);
+
+        return rowKey;
+    }
+
+    // <dim1>#, scan all the rows of a dim1
+    public static byte[] rowKeyPrefix(String dim1) {
+        byte[] dim = dim1.getBytes(StandardCharsets.UTF_8);
+        byte[] prefix = Arrays.copyOf(dim, dim.length + 1);
+        prefix[dim.length] = ROW_KEY_DELIMITER;
+
+        return prefix;
+    }
+
+    /* decode helpers for readers */
+
+    public static String decodeTallDim1(byte[] rowKey) {
+        return decodeDim1(rowKey, Bytes.SIZEOF_LONG);
+    }
+
+    public static long decodeTallTimestamp(byte[] rowKey) {
+        return Long.MAX_VALUE - Bytes.toLong(rowKey, rowKey.length - Bytes.SIZEOF_LONG);
+    }
+
+    public static String decodeWideDim1(byte[] rowKey) {
+        return decodeDim1(rowKey, 2 * Bytes.SIZEOF_LONG);
+    }
+
+    public static long decodeWideWindowStart(byte[] rowKey) {
+        return Bytes.toLong(rowKey, rowKey.length - 2 * Bytes.SIZEOF_LONG);
+    }
+
+    public static long decodeWideWindowEnd(byte[] rowKey) {
+        return Bytes.toLong(rowKey, rowKey.length - Bytes.SIZEOF_LONG);
+    }
+
+    public static String decodeCounterDim1(byte[] rowKey) {
+        return decodeDim1(rowKey, Bytes.SIZEOF_LONG);
+    }
+
+    public static long decodeCounterBucketStart(byte[] rowKey) {
+        return Bytes.toLong(rowKey, rowKey.length - Bytes.SIZEOF_LONG);
+    }
+
+    // fixed width suffix + the delimiter
+    private static String decodeDim1(byte[] rowKey, int suffixLength) {
+        return new String(rowKey, 0, rowKey.length - suffixLength - 1, StandardCharsets.UTF_8);
+    }
+
+    public static long decodeLong(byte[] cell) {
+        return Bytes.toLong(cell);
+    }
+
+    public static double decodeDouble(byte[] cell) {
+        return Bytes.toDouble(cell);
+    }
+
+    public static boolean decodeBoolean(byte[] cell) {
+        return Bytes.toBoolean(cell);
+    }
+
+    public static String decodeString(byte[] cell) {
+        return Bytes.toString(cell);
+    }
+}
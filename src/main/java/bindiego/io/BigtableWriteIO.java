@@ -0,0 +1,214 @@
+package bindiego.io;
+
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+import com.google.auto.value.AutoValue;
+import com.google.cloud.bigtable.beam.AbstractCloudBigtableTableDoFn;
+import com.google.cloud.bigtable.beam.CloudBigtableTableConfiguration;
+import com.google.cloud.bigtable.hbase.BigtableOptionsFactory;
+
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Mutation;
+
+import static org.apache.beam.vendor.guava.v26_0_jre.com.google.common.base.Preconditions.checkArgument;
+import static org.apache.beam.vendor.guava.v26_0_jre.com.google.common.base.Preconditions.checkState;
+
+import org.apache.beam.sdk.annotations.Experimental;
+import org.apache.beam.sdk.annotations.Experimental.Kind;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PDone;
+
+/**
+ * Bigtable sink with the bulk mutation batching & flow control knobs of the Bigtable HBase
+ * client exposed, plus write metrics, instead of CloudBigtableIO.writeToTable defaults.
+ *
+ * Metrics under the "bigtable.<table id>" namespace, @see BufferedMutationWriter
+ *
+ * Any knob not set keeps the client default. Set BIGTABLE_EMULATOR_HOST to write to the
+ * Bigtable emulator instead.
+ */
+@Experimental(Kind.SOURCE_SINK)
+public class BigtableWriteIO {
+    private BigtableWriteIO() {} // disable new
+
+    public static Write write() {
+        return new AutoValue_BigtableWriteIO_Write.Builder().build();
+    }
+
+    @AutoValue
+    public abstract static class Write extends PTransform<PCollection<Mutation>, PDone>
+            implements MutationSink {
+
+        @Nullable
+        abstract String getProjectId();
+
+        @Nullable
+        abstract String getInstanceId();
+
+        @Nullable
+        abstract String getTableId();
+
+        @Nullable
+        abstract Integer getBulkMaxRowKeyCount();
+
+        @Nullable
+        abstract Long getBulkMaxRequestSizeBytes();
+
+        @Nullable
+        abstract Integer getMaxInflightRpcs();
+
+        @Nullable
+        abstract Integer getThrottlingThresholdMs();
+
+        abstract Builder builder();
+
+        @AutoValue.Builder
+        abstract static class Builder {
+            abstract Builder setProjectId(String projectId);
+
+            abstract Builder setInstanceId(String instanceId);
+
+            abstract Builder setTableId(String tableId);
+
+            abstract Builder setBulkMaxRowKeyCount(Integer bulkMaxRowKeyCount);
+
+            abstract Builder setBulkMaxRequestSizeBytes(Long bulkMaxRequestSizeBytes);
+
+            abstract Builder setMaxInflightRpcs(Integer maxInflightRpcs);
+
+            abstract Builder setThrottlingThresholdMs(Integer throttlingThresholdMs);
+
+            abstract Write build();
+        }
+
+        public Write withInstance(String projectId, String instanceId) {
+            checkArgument(projectId != null, "projectId can not be null");
+            checkArgument(instanceId != null, "instanceId can not be null");
+            return builder()
+                .setProjectId(projectId)
+                .setInstanceId(instanceId)
+                .build();
+        }
+
+        public Write withTable(String projectId, String instanceId, String tableId) {
+            return withInstance(projectId, instanceId).writeTo(tableId);
+        }
+
+        @Override
+        public Write writeTo(String tableId) {
+            checkArgument(tableId != null, "tableId can not be null");
+            return builder().setTableId(tableId).build();
+        }
+
+        // max mutations (rows) per bulk MutateRows request
+        public Write withBulkMaxRowKeyCount(int count) {
+            checkArgument(count > 0, "count must be > 0, but was %s", count);
+            return builder().setBulkMaxRowKeyCount(count).build();
+        }
+
+        // max bytes per bulk MutateRows request
+        public Write withBulkMaxRequestSizeBytes(long bytes) {
+            checkArgument(bytes > 0, "bytes must be > 0, but was %s", bytes);
+            return builder().setBulkMaxRequestSizeBytes(bytes).build();
+        }
+
+        // max outstanding bulk requests per worker, mutate() blocks beyond that
+        public Write withMaxInflightRpcs(int maxInflightRpcs) {
+            checkArgument(maxInflightRpcs > 0,
+                "maxInflightRpcs must be > 0, but was %s", maxInflightRpcs);
+            return builder().setMaxInflightRpcs(maxInflightRpcs).build();
+        }
+
+        /**
+         * Client side flow control, the client throttles itself when the RPC latency goes
+         * above the threshold, so autoscaled workers don't overload the cluster.
+         */
+        public Write withThrottling(int thresholdMs) {
+            checkArgument(thresholdMs > 0, "thresholdMs must be > 0, but was %s", thresholdMs);
+            return builder().setThrottlingThresholdMs(thresholdMs).build();
+        }
+
+        public CloudBigtableTableConfiguration tableConf() {
+            CloudBigtableTableConfiguration.Builder conf = new CloudBigtableTableConfiguration.Builder()
+                .withProjectId(getProjectId())
+                .withInstanceId(getInstanceId())
+                .withTableId(getTableId());
+
+            if (null != getBulkMaxRowKeyCount()) {
+                conf.withConfiguration(BigtableOptionsFactory.BIGTABLE_BULK_MAX_ROW_KEY_COUNT,
+                    String.valueOf(getBulkMaxRowKeyCount()));
+            }
+
+            if (null != getBulkMaxRequestSizeBytes()) {
+                conf.withConfiguration(BigtableOptionsFactory.BIGTABLE_BULK_MAX_REQUEST_SIZE_BYTES,
+                    String.valueOf(getBulkMaxRequestSizeBytes()));
+            }
+
+            if (null != getMaxInflightRpcs()) {
+                conf.withConfiguration(BigtableOptionsFactory.MAX_INFLIGHT_RPCS_KEY,
+                    String.valueOf(getMaxInflightRpcs()));
+            }
+
+            if (null != getThrottlingThresholdMs()) {
+                conf.withConfiguration(
+                        BigtableOptionsFactory.BIGTABLE_BUFFERED_MUTATOR_ENABLE_THROTTLING, "true")
+                    .withConfiguration(
+                        BigtableOptionsFactory.BIGTABLE_BUFFERED_MUTATOR_THROTTLING_THRESHOLD_MILLIS,
+                        String.valueOf(getThrottlingThresholdMs()));
+            }
+
+            return conf.build();
+        }
+
+        @Override
+        public PDone expand(PCollection<Mutation> input) {
+            checkState(null != getProjectId(), "withInstance() is required");
+            checkState(null != getTableId(), "writeTo() is required");
+
+            input.apply("Buffered write " + getTableId(), ParDo.of(new BufferedWriteFn(tableConf())));
+            return PDone.in(input.getPipeline());
+        }
+    }
+
+    static class BufferedWriteFn extends AbstractCloudBigtableTableDoFn<Mutation, Void> {
+        private final String tableId;
+
+        private transient BufferedMutationWriter writer;
+
+        BufferedWriteFn(CloudBigtableTableConfiguration tableConf) {
+            super(tableConf);
+            this.tableId = tableConf.getTableId();
+        }
+
+        @StartBundle
+        public void startBundle() throws IOException {
+            if (null == writer) {
+                writer = new BufferedMutationWriter("bigtable." + tableId, getConnection(),
+                    new BufferedMutatorParams(TableName.valueOf(tableId)));
+            }
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext ctx) throws IOException {
+            writer.write(ctx.element());
+        }
+
+        @FinishBundle
+        public void finishBundle() throws IOException {
+            writer.flush();
+        }
+
+        @Teardown
+        public void closeWriter() throws IOException {
+            if (null != writer) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+}
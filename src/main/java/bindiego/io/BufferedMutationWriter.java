@@ -0,0 +1,73 @@
+package bindiego.io;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Distribution;
+import org.apache.beam.sdk.metrics.Metrics;
+
+/**
+ * Buffered mutator of a table with the write metrics, shared by the Bigtable & HBase sinks.
+ *
+ * Metrics, namespace "<bigtable|hbase>.<table id>",
+ *   mutations, mutation_bytes, failed_mutations: Counter
+ *   mutate_wait_ms: Distribution, time blocked handing a mutation to the client,
+ *                   i.e. throttled, max in-flight RPCs reached or write buffer full
+ *   flush_ms: Distribution, time to flush the outstanding mutations at the end of a bundle
+ */
+class BufferedMutationWriter {
+    private final BufferedMutator mutator;
+
+    private final Counter mutations;
+    private final Counter mutationBytes;
+    private final Counter failedMutations;
+    private final Distribution mutateWaitMs;
+    private final Distribution flushMs;
+
+    BufferedMutationWriter(String namespace, Connection connection, BufferedMutatorParams params)
+            throws IOException {
+        this.mutator = connection.getBufferedMutator(params);
+
+        this.mutations = Metrics.counter(namespace, "mutations");
+        this.mutationBytes = Metrics.counter(namespace, "mutation_bytes");
+        this.failedMutations = Metrics.counter(namespace, "failed_mutations");
+        this.mutateWaitMs = Metrics.distribution(namespace, "mutate_wait_ms");
+        this.flushMs = Metrics.distribution(namespace, "flush_ms");
+    }
+
+    void write(Mutation mutation) throws IOException {
+        long start = System.nanoTime();
+        try {
+            mutator.mutate(mutation);
+        } catch (RetriesExhaustedWithDetailsException ex) {
+            failedMutations.inc(ex.getNumExceptions());
+            throw ex;
+        }
+        mutateWaitMs.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        mutations.inc();
+        mutationBytes.inc(mutation.heapSize());
+    }
+
+    void flush() throws IOException {
+        long start = System.nanoTime();
+        try {
+            mutator.flush();
+        } catch (RetriesExhaustedWithDetailsException ex) {
+            failedMutations.inc(ex.getNumExceptions());
+            throw ex;
+        }
+        flushMs.update(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    void close() throws IOException {
+        mutator.close();
+    }
+}
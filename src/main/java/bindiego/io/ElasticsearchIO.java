@@ -6,6 +6,7 @@ import org.slf4j.LoggerFactory;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.Request;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.ResponseListener;
@@ -46,6 +47,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.security.KeyStore;
 import java.util.ArrayList;
@@ -53,11 +56,14 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.security.cert.X509Certificate;
 import java.security.NoSuchAlgorithmException;
 import java.security.KeyManagementException;
@@ -71,29 +77,55 @@ import org.apache.beam.sdk.annotations.Experimental.Kind;
 import org.apache.beam.sdk.coders.Coder;
 import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.io.BoundedSource;
+import org.apache.beam.sdk.io.FileBasedSink;
+import org.apache.beam.sdk.io.FileIO;
+import org.apache.beam.sdk.io.FileIO.ReadableFile;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.TextIO;
+import org.apache.beam.sdk.io.fs.ResolveOptions.StandardResolveOptions;
+import org.apache.beam.sdk.io.fs.ResourceId;
+import org.apache.beam.sdk.util.MimeTypes;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.options.ValueProvider.NestedValueProvider;
+import org.apache.beam.sdk.options.ValueProvider.StaticValueProvider;
+import org.apache.beam.sdk.transforms.Create;
 import org.apache.beam.sdk.transforms.DoFn;
 import org.apache.beam.sdk.transforms.PTransform;
 import org.apache.beam.sdk.transforms.ParDo;
 import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.transforms.Wait;
+import org.apache.beam.sdk.transforms.Watch;
 import org.apache.beam.sdk.transforms.display.DisplayData;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindows;
+import org.apache.beam.sdk.transforms.windowing.Window;
 import org.apache.beam.sdk.util.BackOff;
 import org.apache.beam.sdk.util.BackOffUtils;
 import org.apache.beam.sdk.util.FluentBackoff;
 import org.apache.beam.sdk.util.Sleeper;
 import org.apache.beam.sdk.values.PBegin;
 import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollection.IsBounded;
+import org.apache.beam.sdk.values.PCollectionTuple;
 import org.apache.beam.sdk.values.PDone;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.TupleTagList;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializerProvider;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.ser.std.StdSerializer;
 
 import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+import bindiego.io.WindowedFilenamePolicy;
 
 /**
  * A very simple Elasticsearch Sink Append only wrapper.
@@ -116,6 +148,14 @@ public class ElasticsearchIO {
             .build();
     }
 
+    public static Drain drain() {
+        return new AutoValue_ElasticsearchIO_Drain.Builder()
+            .setMaxBatchSize(1000L)
+            .setMaxAttempts(10)
+            .setPollInterval(Duration.standardMinutes(1))
+            .build();
+    }
+
     @AutoValue
     public abstract static class ConnectionConf implements Serializable {
         //public abstract List<String> getAddresses();
@@ -198,6 +238,12 @@ public class ElasticsearchIO {
                 .build();
         }
 
+        // same cluster, another index, e.g. for derived documents
+        public ConnectionConf withIndex(String index) {
+            checkArgument(index != null, "index can not be null");
+            return builder().setIndex(index).build();
+        }
+
         public ConnectionConf withUsername(String username) {
             checkArgument(username != null, "username can not be null");
             checkArgument(!username.isEmpty(), "username can not be empty");
@@ -414,9 +460,293 @@ public class ElasticsearchIO {
         }
     }
 
+    /**
+     * Index settings applied while a bounded (backfill / replay) run is appending documents.
+     *
+     * Before the first document is sent, the target index (or every index behind the alias)
+     * gets refresh disabled and replicas dropped, the original values are remembered and put
+     * back once all the documents are written, optionally followed by a force merge.
+     *
+     * NOTE: if the run fails, the settings are NOT restored, do it by hand, e.g.
+     *   PUT <index>/_settings { "index": { "refresh_interval": null, "number_of_replicas": 1 } }
+     */
+    @AutoValue
+    public abstract static class IngestModeConf implements Serializable {
+        static final String REFRESH_INTERVAL = "index.refresh_interval";
+        static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+
+        abstract String getRefreshInterval();
+
+        abstract int getNumberOfReplicas();
+
+        @Nullable
+        abstract Integer getForceMergeMaxNumSegments();
+
+        abstract Builder builder();
+
+        @AutoValue.Builder
+        abstract static class Builder {
+            abstract Builder setRefreshInterval(String refreshInterval);
+
+            abstract Builder setNumberOfReplicas(int numberOfReplicas);
+
+            abstract Builder setForceMergeMaxNumSegments(Integer maxNumSegments);
+
+            abstract IngestModeConf build();
+        }
+
+        // refresh_interval=-1, number_of_replicas=0, no force merge
+        public static IngestModeConf create() {
+            return new AutoValue_ElasticsearchIO_IngestModeConf.Builder()
+                .setRefreshInterval("-1")
+                .setNumberOfReplicas(0)
+                .build();
+        }
+
+        public IngestModeConf withRefreshInterval(String refreshInterval) {
+            checkArgument(!Strings.isNullOrEmpty(refreshInterval),
+                "refreshInterval can not be null or empty");
+            return builder().setRefreshInterval(refreshInterval).build();
+        }
+
+        public IngestModeConf withNumberOfReplicas(int numberOfReplicas) {
+            checkArgument(numberOfReplicas >= 0,
+                "numberOfReplicas must be >= 0, but was %s", numberOfReplicas);
+            return builder().setNumberOfReplicas(numberOfReplicas).build();
+        }
+
+        public IngestModeConf withForceMerge(int maxNumSegments) {
+            checkArgument(maxNumSegments > 0,
+                "maxNumSegments must be > 0, but was %s", maxNumSegments);
+            return builder().setForceMergeMaxNumSegments(maxNumSegments).build();
+        }
+    }
+
+    /**
+     * Where to put the documents could not be delivered when Elasticsearch is down, instead
+     * of failing the bundle and stalling everything fused with the sink.
+     *
+     * Spilled files are windowed NDJSON bulk bodies, i.e. action & document lines, so routing
+     * is kept. They are picked up and deleted by {@link Drain} once Elasticsearch is back.
+     */
+    @AutoValue
+    public abstract static class SpillConf implements Serializable {
+        static final String SPILL_SUFFIX = ".ndjson";
+        // documents given up on, out of the watched file pattern
+        static final String DEAD_LETTER_DIR = "dead/";
+        static final String DEAD_LETTER_SUFFIX = ".dead";
+
+        abstract ValueProvider<String> getSpillDir();
+
+        abstract String getTempDir();
+
+        abstract ValueProvider<String> getFilenamePrefix();
+
+        abstract ValueProvider<String> getShardTemplate();
+
+        abstract int getNumShards();
+
+        // skip Elasticsearch and spill directly for this long after a failed request
+        abstract Duration getCooldown();
+
+        abstract Builder builder();
+
+        @AutoValue.Builder
+        abstract static class Builder {
+            abstract Builder setSpillDir(ValueProvider<String> spillDir);
+
+            abstract Builder setTempDir(String tempDir);
+
+            abstract Builder setFilenamePrefix(ValueProvider<String> filenamePrefix);
+
+            abstract Builder setShardTemplate(ValueProvider<String> shardTemplate);
+
+            abstract Builder setNumShards(int numShards);
+
+            abstract Builder setCooldown(Duration cooldown);
+
+            abstract SpillConf build();
+        }
+
+        /**
+         * @param spillDir must end with a slash and NOT contain the temp dir
+         * @param tempDir temp dir for the windowed file writes
+         */
+        public static SpillConf create(ValueProvider<String> spillDir, String tempDir) {
+            checkArgument(null != spillDir, "spillDir can not be null");
+            checkArgument(!Strings.isNullOrEmpty(tempDir), "tempDir can not be null or empty");
+            return new AutoValue_ElasticsearchIO_SpillConf.Builder()
+                .setSpillDir(spillDir)
+                .setTempDir(tempDir)
+                .setFilenamePrefix(StaticValueProvider.of("es-spill"))
+                .setShardTemplate(StaticValueProvider.of("W-P-SS-of-NN"))
+                .setNumShards(1)
+                .setCooldown(Duration.standardMinutes(1))
+                .build();
+        }
+
+        public SpillConf withFilenamePrefix(ValueProvider<String> filenamePrefix) {
+            checkArgument(null != filenamePrefix, "filenamePrefix can not be null");
+            return builder().setFilenamePrefix(filenamePrefix).build();
+        }
+
+        public SpillConf withShardTemplate(ValueProvider<String> shardTemplate) {
+            checkArgument(null != shardTemplate, "shardTemplate can not be null");
+            return builder().setShardTemplate(shardTemplate).build();
+        }
+
+        public SpillConf withNumShards(int numShards) {
+            checkArgument(numShards > 0, "numShards must be > 0, but was %s", numShards);
+            return builder().setNumShards(numShards).build();
+        }
+
+        public SpillConf withCooldown(Duration cooldown) {
+            checkArgument(null != cooldown, "cooldown can not be null");
+            return builder().setCooldown(cooldown).build();
+        }
+
+        ValueProvider<String> getFilePattern() {
+            return NestedValueProvider.of(getSpillDir(),
+                (SerializableFunction<String, String>) dir -> dir + "**" + SPILL_SUFFIX);
+        }
+    }
+
+    /**
+     * Remember the current settings of the target index(es) then switch them to ingest mode.
+     *
+     * @Input the index or alias name
+     * @Output json, { "<concrete index>": { "index.refresh_interval": .., "index.number_of_replicas": .. } }
+     *         a null value means the setting was not set explicitly, so it will be reset to default
+     */
+    static class ApplyIngestSettingsFn extends DoFn<String, String> {
+        private final ConnectionConf connectionConf;
+        private final IngestModeConf ingestModeConf;
+        private transient RestClient restClient;
+
+        ApplyIngestSettingsFn(ConnectionConf connectionConf, IngestModeConf ingestModeConf) {
+            this.connectionConf = connectionConf;
+            this.ingestModeConf = ingestModeConf;
+        }
+
+        @Setup
+        public void setup() throws IOException {
+            restClient = connectionConf.createClient();
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext ctx) throws IOException {
+            String index = ctx.element();
+
+            Request get = new Request("GET", String.format("/%s/_settings", index));
+            get.addParameter("flat_settings", "true");
+            JsonNode current = parseResponse(restClient.performRequest(get).getEntity());
+
+            ObjectNode original = mapper.createObjectNode();
+            Iterator<Map.Entry<String, JsonNode>> indices = current.fields();
+            while (indices.hasNext()) {
+                Map.Entry<String, JsonNode> entry = indices.next();
+                JsonNode settings = entry.getValue().path("settings");
+
+                ObjectNode indexSettings = original.putObject(entry.getKey());
+                indexSettings.put(IngestModeConf.REFRESH_INTERVAL,
+                    settings.path(IngestModeConf.REFRESH_INTERVAL).textValue());
+                indexSettings.put(IngestModeConf.NUMBER_OF_REPLICAS,
+                    settings.path(IngestModeConf.NUMBER_OF_REPLICAS).textValue());
+            }
+
+            ObjectNode ingestSettings = mapper.createObjectNode();
+            ingestSettings.put(IngestModeConf.REFRESH_INTERVAL, ingestModeConf.getRefreshInterval());
+            ingestSettings.put(IngestModeConf.NUMBER_OF_REPLICAS, ingestModeConf.getNumberOfReplicas());
+            putSettings(restClient, index, ingestSettings);
+
+            logger.info("Index {} switched to bulk ingest mode, original settings: {}", index, original);
+
+            ctx.output(mapper.writeValueAsString(original));
+        }
+
+        @Teardown
+        public void closeClient() throws IOException {
+            if (null != restClient) {
+                restClient.close();
+            }
+        }
+    }
+
+    /**
+     * Put back the settings remembered by {@link ApplyIngestSettingsFn}, then force merge if asked.
+     */
+    static class RestoreIngestSettingsFn extends DoFn<String, Void> {
+        private final ConnectionConf connectionConf;
+        private final IngestModeConf ingestModeConf;
+        private transient RestClient restClient;
+
+        RestoreIngestSettingsFn(ConnectionConf connectionConf, IngestModeConf ingestModeConf) {
+            this.connectionConf = connectionConf;
+            this.ingestModeConf = ingestModeConf;
+        }
+
+        @Setup
+        public void setup() throws IOException {
+            restClient = connectionConf.createClient();
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext ctx) throws IOException {
+            JsonNode original = mapper.readTree(ctx.element());
+
+            Iterator<Map.Entry<String, JsonNode>> indices = original.fields();
+            while (indices.hasNext()) {
+                Map.Entry<String, JsonNode> entry = indices.next();
+                putSettings(restClient, entry.getKey(), entry.getValue());
+
+                logger.info("Index {} settings restored: {}", entry.getKey(), entry.getValue());
+            }
+
+            if (null != ingestModeConf.getForceMergeMaxNumSegments()) {
+                Request forceMerge = new Request("POST",
+                    String.format("/%s/_forcemerge", connectionConf.getIndex()));
+                forceMerge.addParameter("max_num_segments",
+                    String.valueOf(ingestModeConf.getForceMergeMaxNumSegments()));
+                restClient.performRequest(forceMerge);
+
+                logger.info("Index {} force merged to {} segment(s)",
+                    connectionConf.getIndex(), ingestModeConf.getForceMergeMaxNumSegments());
+            }
+        }
+
+        @Teardown
+        public void closeClient() throws IOException {
+            if (null != restClient) {
+                restClient.close();
+            }
+        }
+    }
+
+    // PUT /<index>/_settings { "index.xxx": .. }
+    static void putSettings(RestClient restClient, String index, JsonNode settings)
+            throws IOException {
+        Request request = new Request("PUT", String.format("/%s/_settings", index));
+        request.setEntity(new NStringEntity(
+            mapper.writeValueAsString(settings), ContentType.APPLICATION_JSON));
+        restClient.performRequest(request);
+    }
+
     @FunctionalInterface
     interface RetryPredicate extends Predicate<HttpEntity>, Serializable {}
 
+    /** Extract a value, e.g. routing key, from the json document. */
+    @FunctionalInterface
+    public interface FieldValueExtractFn extends SerializableFunction<JsonNode, String> {}
+
+    /** Use the value of a top level field in the document, e.g. dim1, null if absent. */
+    public static FieldValueExtractFn field(final String fieldName) {
+        checkArgument(!Strings.isNullOrEmpty(fieldName), "fieldName can not be null or empty");
+        return doc -> {
+            JsonNode value = doc.get(fieldName);
+            return null == value || value.isNull() ? null : value.asText();
+        };
+    }
+
     static class DefaultRetryPredicate implements RetryPredicate {
 
         private int errorCode;
@@ -466,6 +796,15 @@ public class ElasticsearchIO {
 
         abstract long getMaxBatchSizeBytes();
 
+        @Nullable
+        abstract IngestModeConf getIngestModeConf();
+
+        @Nullable
+        abstract FieldValueExtractFn getRoutingFn();
+
+        @Nullable
+        abstract SpillConf getSpillConf();
+
         abstract Builder builder();
 
         @AutoValue.Builder
@@ -478,6 +817,12 @@ public class ElasticsearchIO {
 
             abstract Builder setMaxBatchSizeBytes(long maxBatchSizeBytes);
 
+            abstract Builder setIngestModeConf(IngestModeConf ingestModeConf);
+
+            abstract Builder setRoutingFn(FieldValueExtractFn routingFn);
+
+            abstract Builder setSpillConf(SpillConf spillConf);
+
             abstract Append build();
         }
 
@@ -502,17 +847,111 @@ public class ElasticsearchIO {
             return builder().setMaxBatchSizeBytes(batchSizeBytes).build();
         }
 
+        /**
+         * Bounded input only, e.g. replay days of data. Streaming jobs should tune the
+         * index template instead.
+         */
+        public Append withIngestModeConf(IngestModeConf ingestModeConf) {
+            checkArgument(ingestModeConf != null, "ingestModeConf can not be null");
+            return builder().setIngestModeConf(ingestModeConf).build();
+        }
+
+        /**
+         * Custom shard routing, e.g. ElasticsearchIO.field("dim1"), so all documents share the
+         * same key land in one shard and queries with the same routing hit only that shard.
+         * Documents are also batched by routing key so a bulk request mostly goes to one shard,
+         * a key reaching the max batch size is sent on its own, all the keys buffered are sent
+         * together, grouped by key, when the total reaches it.
+         */
+        public Append withRoutingFn(FieldValueExtractFn routingFn) {
+            checkArgument(routingFn != null, "routingFn can not be null");
+            return builder().setRoutingFn(routingFn).build();
+        }
+
+        /**
+         * Spill the batches failed to deliver to files rather than failing the bundle.
+         * Use together with {@link Drain} to get them back into Elasticsearch.
+         */
+        public Append withSpillConf(SpillConf spillConf) {
+            checkArgument(spillConf != null, "spillConf can not be null");
+            return builder().setSpillConf(spillConf).build();
+        }
+
         @Override
         public PDone expand(PCollection<String> input) {
             ConnectionConf connectionConf = getConnectionConf();
             checkState(null != connectionConf, "withConnectionConf() is required");
 
-            input.apply(ParDo.of(new AppendFn(this)));
+            IngestModeConf ingestModeConf = getIngestModeConf();
+            if (null == ingestModeConf) {
+                append(input);
+                return PDone.in(input.getPipeline());
+            }
+
+            checkArgument(IsBounded.BOUNDED == input.isBounded(),
+                "withIngestModeConf() only works with bounded input");
+
+            // tune index settings -> append all documents -> restore index settings
+            PCollection<String> originalSettings = input.getPipeline()
+                .apply("Target index", Create.of(connectionConf.getIndex()))
+                .apply("Switch index to bulk ingest mode",
+                    ParDo.of(new ApplyIngestSettingsFn(connectionConf, ingestModeConf)));
+
+            PCollection<Void> appended = append(
+                input.apply("Wait for bulk ingest mode", Wait.on(originalSettings)));
+
+            originalSettings
+                .apply("Wait for all documents appended",
+                    Wait.on(appended.apply(Window.<Void>into(new GlobalWindows()))))
+                .apply("Restore index settings",
+                    ParDo.of(new RestoreIngestSettingsFn(connectionConf, ingestModeConf)));
+
             return PDone.in(input.getPipeline());
         }
 
+        private PCollection<Void> append(PCollection<String> input) {
+            PCollectionTuple results = input.apply("Append documents",
+                ParDo.of(new AppendFn(this))
+                    .withOutputTags(AppendFn.APPENDED, TupleTagList.of(AppendFn.SPILLED)));
+
+            SpillConf spillConf = getSpillConf();
+            if (null != spillConf) {
+                results.get(AppendFn.SPILLED)
+                    .setCoder(StringUtf8Coder.of())
+                    .apply("Spill undelivered documents",
+                        TextIO.write()
+                            .withNumShards(spillConf.getNumShards())
+                            .withWindowedWrites()
+                            .to(
+                                new WindowedFilenamePolicy(
+                                    spillConf.getSpillDir(),
+                                    spillConf.getFilenamePrefix(),
+                                    spillConf.getShardTemplate(),
+                                    StaticValueProvider.of(SpillConf.SPILL_SUFFIX)
+                                ))
+                            .withTempDirectory(
+                                FileBasedSink.convertToFileResourceIfPossible(spillConf.getTempDir())));
+            }
+
+            return results.get(AppendFn.APPENDED);
+        }
+
         static class AppendFn extends DoFn<String, Void> {
             private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+            private static final DocMeta NO_META = new DocMeta(null, null);
+
+            static {
+                SimpleModule module = new SimpleModule();
+                module.addSerializer(DocMeta.class, new DocMetaSerializer());
+                OBJECT_MAPPER.registerModule(module);
+            }
+
+            static final TupleTag<Void> APPENDED = new TupleTag<Void>() {};
+            static final TupleTag<String> SPILLED = new TupleTag<String>() {};
+
+            private static final Counter spilledDocs =
+                Metrics.counter(ElasticsearchIO.class, "es_spilled_docs");
+
             private static final int DEFAULT_RETRY_ON_CONFLICT = 5; // race conditions on updates
 
             private static final Duration RETRY_INITIAL_BACKOFF = Duration.standardSeconds(5);
@@ -522,23 +961,53 @@ public class ElasticsearchIO {
             static final String RETRY_FAILED_LOG =
                 "Error writing to ES after %d attempt(s). No more attempts allowed";
 
+            static final String SPILL_LOG =
+                "Error writing to ES, spilling %d document(s) and skipping ES for %s";
+
+            private static final String LINE_SEPARATOR = String.format("%n");
+
             private transient FluentBackoff retryBackoff;
 
             private int esVersion;
             private final Append spec;
             private transient RestClient restClient;
-            private ArrayList<String> batch;
+            // routing key -> documents, a single null key if no routing
+            private LinkedHashMap<String, RoutedBatch> batches;
+            private long currentBatchSize;
             private long currentBatchSizeBytes;
+            // failed to deliver, output to the spill files when the bundle finishes
+            private ArrayList<BufferedDoc> spilled;
+            // Elasticsearch is considered down until then, spill directly
+            private transient long unavailableUntil;
+
+            private static class RoutedBatch {
+                final ArrayList<BufferedDoc> docs = new ArrayList<>();
+                long sizeBytes;
+            }
+
+            private static class BufferedDoc {
+                final String action; // bulk action & document lines
+                final Instant timestamp;
+                final BoundedWindow window;
+
+                BufferedDoc(String action, Instant timestamp, BoundedWindow window) {
+                    this.action = action;
+                    this.timestamp = timestamp;
+                    this.window = window;
+                }
+            }
 
             private static class DocMeta implements Serializable {
                 final String index;
+                final String routing;
 
-                DocMeta(final String index) {
+                DocMeta(final String index, final String routing) {
                     this.index = index;
+                    this.routing = routing;
                 }
             }
 
-            private class DocMetaSerializer extends StdSerializer<DocMeta> {
+            private static class DocMetaSerializer extends StdSerializer<DocMeta> {
                 private DocMetaSerializer() {
                     super(DocMeta.class);
                 }
@@ -553,13 +1022,22 @@ public class ElasticsearchIO {
                         gen.writeStringField("_index", value.index);
                     }
 
+                    if (null != value.routing) {
+                        gen.writeStringField("routing", value.routing);
+                    }
+
                     gen.writeEndObject();
                 }
             }
 
-            // { "index":{} }
-            private String getDocMeta(String document) throws IOException {
-                return "{}";
+            // { "index":{} } or { "index":{ "routing": "xxx" } }
+            private DocMeta getDocMeta(String document) throws IOException {
+                if (null == spec.getRoutingFn()) {
+                    return NO_META;
+                }
+
+                JsonNode parsedDocument = OBJECT_MAPPER.readTree(document);
+                return new DocMeta(null, spec.getRoutingFn().apply(parsedDocument));
             }
 
             private static String lowerCaseOrNull(String input) {
@@ -573,7 +1051,18 @@ public class ElasticsearchIO {
             @Setup 
             public void setup() throws IOException {
                 ConnectionConf connectionConf = spec.getConnectionConf();
-                esVersion = getEsVersion(connectionConf);
+                try {
+                    esVersion = getEsVersion(connectionConf);
+                } catch (IllegalArgumentException ex) {
+                    if (null == spec.getSpillConf()) {
+                        throw ex;
+                    }
+
+                    // ES may be down, don't fail the worker, documents will be spilled
+                    logger.warn("Cannot get Elasticsearch version, spilling documents", ex);
+                    unavailableUntil = System.currentTimeMillis()
+                        + spec.getSpillConf().getCooldown().getMillis();
+                }
                 restClient = connectionConf.createClient();
 
                 retryBackoff =
@@ -592,30 +1081,62 @@ public class ElasticsearchIO {
 
             @StartBundle
             public void startBundle(StartBundleContext context) {
-                batch = new ArrayList<>();
+                batches = new LinkedHashMap<>();
+                spilled = new ArrayList<>();
+                currentBatchSize = 0;
                 currentBatchSizeBytes = 0;
             }
 
             @ProcessElement
-            public void processElement(ProcessContext context) throws Exception {
+            public void processElement(ProcessContext context, BoundedWindow window) throws Exception {
                 String doc = context.element();
-                String docMeta = getDocMeta(doc);
+                DocMeta docMeta = getDocMeta(doc);
+
+                RoutedBatch routed = batches.get(docMeta.routing);
+                if (null == routed) {
+                    routed = new RoutedBatch();
+                    batches.put(docMeta.routing, routed);
+                }
 
                 // { "index":{} }
                 // { <doc json> }
-                batch.add(String.format("{ \"index\" : %s }%n%s%n", docMeta, doc));
-
-                currentBatchSizeBytes += doc.getBytes(StandardCharsets.UTF_8).length;
-                if (batch.size() >= spec.getMaxBatchSize()
+                routed.docs.add(new BufferedDoc(
+                    String.format("{ \"index\" : %s }%n%s%n",
+                        NO_META == docMeta ? "{}" : OBJECT_MAPPER.writeValueAsString(docMeta), doc),
+                    context.timestamp(), window));
+
+                long docSizeBytes = doc.getBytes(StandardCharsets.UTF_8).length;
+                routed.sizeBytes += docSizeBytes;
+                ++currentBatchSize;
+                currentBatchSizeBytes += docSizeBytes;
+
+                if (routed.docs.size() >= spec.getMaxBatchSize()
+                        || routed.sizeBytes >= spec.getMaxBatchSizeBytes()) {
+                    // a full batch for one routing key, goes to one shard
+                    flushBatch(Collections.singletonList(docMeta.routing));
+                } else if (currentBatchSize >= spec.getMaxBatchSize()
                         || currentBatchSizeBytes >= spec.getMaxBatchSizeBytes()) {
-                    flushBatch();
+                    // too many keys buffered, one request for all of them, grouped by key,
+                    // not a request per document once the limit is reached
+                    flushBatch(new ArrayList<>(batches.keySet()));
                 }
             }
 
             @FinishBundle
             public void finishBundle(FinishBundleContext context)
                     throws IOException, InterruptedException {
-                flushBatch();
+                // below max batch size & bytes in total, so one request for all the keys
+                flushBatch(new ArrayList<>(batches.keySet()));
+
+                for (BufferedDoc doc : spilled) {
+                    // one line for action, one for the document, TextIO adds the line ending
+                    context.output(SPILLED,
+                        doc.action.substring(0, doc.action.length() - LINE_SEPARATOR.length()),
+                        doc.timestamp, doc.window);
+                }
+
+                spilledDocs.inc(spilled.size());
+                spilled.clear();
             }
 
             @Teardown
@@ -625,24 +1146,73 @@ public class ElasticsearchIO {
                 }
             }
 
-            private void flushBatch() throws IOException, InterruptedException {
-                if (batch.isEmpty()) {
+            // send the batches of the routing keys in one bulk request, grouped by key
+            private void flushBatch(List<String> routingKeys)
+                    throws IOException, InterruptedException {
+                List<BufferedDoc> docs = new ArrayList<>();
+                StringBuilder bulkRequest = new StringBuilder();
+                for (String routingKey : routingKeys) {
+                    RoutedBatch routed = batches.remove(routingKey);
+                    if (null == routed) {
+                        continue;
+                    }
+
+                    for (BufferedDoc doc : routed.docs) {
+                        bulkRequest.append(doc.action);
+                    }
+                    docs.addAll(routed.docs);
+
+                    currentBatchSize -= routed.docs.size();
+                    currentBatchSizeBytes -= routed.sizeBytes;
+                }
+
+                if (docs.isEmpty()) {
                     return;
                 }
 
-                StringBuilder bulkRequest = new StringBuilder();
-                for (String json : batch) {
-                    bulkRequest.append(json);
+                if (null == spec.getSpillConf()) {
+                    sendBatch(bulkRequest.toString());
+                    return;
                 }
 
-                batch.clear();
-                currentBatchSizeBytes = 0;
+                if (System.currentTimeMillis() < unavailableUntil) {
+                    spilled.addAll(docs);
+                    return;
+                }
+
+                try {
+                    sendBatch(bulkRequest.toString());
+                } catch (IOException ex) {
+                    if (isRejected(ex)) {
+                        throw ex; // won't make it by trying later
+                    }
+
+                    logger.warn(String.format(SPILL_LOG, docs.size(),
+                        spec.getSpillConf().getCooldown()), ex);
+
+                    unavailableUntil = System.currentTimeMillis()
+                        + spec.getSpillConf().getCooldown().getMillis();
+                    spilled.addAll(docs);
+                }
+            }
+
+            // 4xx other than 429 Too Many Requests, e.g. a bad request or auth failure
+            private static boolean isRejected(IOException ex) {
+                if (!(ex instanceof ResponseException)) {
+                    return false;
+                }
+
+                int status = ((ResponseException) ex).getResponse().getStatusLine().getStatusCode();
+                return status >= 400 && status < 500 && 429 != status;
+            }
+
+            private void sendBatch(String bulkRequest) throws IOException, InterruptedException {
 
                 String endPoint = String.format(
                     "/%s/_bulk",
                     spec.getConnectionConf().getIndex());
                 HttpEntity requestBody = new NStringEntity(
-                    bulkRequest.toString(), ContentType.APPLICATION_JSON);
+                    bulkRequest, ContentType.APPLICATION_JSON);
                 Request request = new Request("POST", endPoint);
                 request.addParameters(Collections.emptyMap());
                 request.setEntity(requestBody);
@@ -707,6 +1277,275 @@ public class ElasticsearchIO {
         }
     }
 
+    /**
+     * Watch the spill dir of {@link SpillConf}, send the spilled bulk bodies back to
+     * Elasticsearch and delete the files once delivered.
+     *
+     * A file failed to deliver is retried by the runner until Elasticsearch is healthy again,
+     * the other branches of the pipeline are not affected. A file partially sent before a failure
+     * spills its unsent documents to a new file, so the delivered batches aren't sent twice.
+     * Delivery is still at least once: spilled documents have no _id, a batch whose request
+     * failed after Elasticsearch indexed it, or a file retried by the runner after its batches
+     * were sent, is indexed again as duplicates.
+     *
+     * Documents the bulk response reports as failed,
+     *   - 429, too many requests: spilled again to <file>-retry-<attempt>-<millis>.ndjson next to
+     *     the original, retried at the next poll, up to withMaxAttempts() sends
+     *   - anything else, e.g. a mapping conflict or a closed index, and the exhausted retries:
+     *     never retried, written to <spill dir>/dead/<file>.dead for a manual replay once fixed,
+     *     counted in es_drain_failed_docs
+     * The original file is deleted once they are.
+     */
+    @AutoValue
+    public abstract static class Drain extends PTransform<PBegin, PDone> {
+
+        @Nullable
+        abstract ConnectionConf getConnectionConf();
+
+        @Nullable
+        abstract SpillConf getSpillConf();
+
+        abstract Duration getPollInterval();
+
+        abstract long getMaxBatchSize();
+
+        abstract int getMaxAttempts();
+
+        abstract Builder builder();
+
+        @AutoValue.Builder
+        abstract static class Builder {
+            abstract Builder setConnectionConf(ConnectionConf connectionConf);
+
+            abstract Builder setSpillConf(SpillConf spillConf);
+
+            abstract Builder setPollInterval(Duration pollInterval);
+
+            abstract Builder setMaxBatchSize(long maxBatchSize);
+
+            abstract Builder setMaxAttempts(int maxAttempts);
+
+            abstract Drain build();
+        }
+
+        public Drain withConnectionConf(ConnectionConf connectionConf) {
+            checkArgument(connectionConf != null, "connectionConf can not be null");
+            return builder().setConnectionConf(connectionConf).build();
+        }
+
+        public Drain withSpillConf(SpillConf spillConf) {
+            checkArgument(spillConf != null, "spillConf can not be null");
+            return builder().setSpillConf(spillConf).build();
+        }
+
+        public Drain withPollInterval(Duration pollInterval) {
+            checkArgument(pollInterval != null && pollInterval.isLongerThan(Duration.ZERO),
+                "pollInterval must be greater than 0");
+            return builder().setPollInterval(pollInterval).build();
+        }
+
+        public Drain withMaxBatchSize(long batchSize) {
+            checkArgument(batchSize > 0, "batchSize must be > 0, but was %s", batchSize);
+            return builder().setMaxBatchSize(batchSize).build();
+        }
+
+        /** Sends of a document rejected with 429 before it goes to the dead letter dir. */
+        public Drain withMaxAttempts(int maxAttempts) {
+            checkArgument(maxAttempts > 0, "maxAttempts must be > 0, but was %s", maxAttempts);
+            return builder().setMaxAttempts(maxAttempts).build();
+        }
+
+        @Override
+        public PDone expand(PBegin input) {
+            checkState(null != getConnectionConf(), "withConnectionConf() is required");
+            checkState(null != getSpillConf(), "withSpillConf() is required");
+
+            input
+                .apply("Watch spilled files",
+                    FileIO.match()
+                        .filepattern(getSpillConf().getFilePattern())
+                        .continuously(getPollInterval(), Watch.Growth.<String>never()))
+                .apply("Read spilled files", FileIO.readMatches())
+                .apply("Send spilled documents", ParDo.of(new DrainFn(this)));
+
+            return PDone.in(input.getPipeline());
+        }
+
+        static class DrainFn extends DoFn<ReadableFile, Void> {
+            private static final Counter drainedDocs =
+                Metrics.counter(ElasticsearchIO.class, "es_drained_docs");
+            private static final Counter retriedDocs =
+                Metrics.counter(ElasticsearchIO.class, "es_drain_retried_docs");
+            private static final Counter failedDocs =
+                Metrics.counter(ElasticsearchIO.class, "es_drain_failed_docs");
+
+            // <spilled file>-retry-<attempt>-<millis>.ndjson, the retry part replaced on each retry
+            private static final Pattern RETRY_SUFFIX =
+                Pattern.compile("(-retry-(\\d+)-\\d+)?" + Pattern.quote(SpillConf.SPILL_SUFFIX) + "$");
+
+            private final Drain spec;
+            private transient RestClient restClient;
+
+            DrainFn(Drain spec) {
+                this.spec = spec;
+            }
+
+            @Setup
+            public void setup() throws IOException {
+                restClient = spec.getConnectionConf().createClient();
+            }
+
+            @ProcessElement
+            public void processElement(@Element ReadableFile file) throws IOException {
+                final ResourceId spilled = file.getMetadata().resourceId();
+                final int attempt = attempt(spilled.getFilename());
+
+                // action & document, 2 lines per document
+                final List<String> lines =
+                    Arrays.asList(file.readFullyAsUTF8String().split("\\r?\\n"));
+                final int end = lines.size() & ~1;
+                final int batchLines = (int) Math.min(end, 2 * spec.getMaxBatchSize());
+
+                List<String> retried = new ArrayList<>();
+                List<String> rejected = new ArrayList<>();
+                int sent = 0;
+                try {
+                    for (; sent < end; sent = Math.min(end, sent + batchLines)) {
+                        sendBatch(lines.subList(sent, Math.min(end, sent + batchLines)),
+                            retried, rejected);
+                    }
+                } catch (IOException ex) {
+                    if (0 == sent) {
+                        // nothing delivered yet, the runner retries the whole file
+                        throw ex;
+                    }
+                    logger.warn(String.format("Failed to drain %s after %d document(s), "
+                        + "spilling the rest again", spilled, sent / 2), ex);
+                }
+                final int drained = (sent - retried.size() - rejected.size()) / 2;
+
+                // all written before the original is deleted, so nothing is lost in between
+                if (sent < end) {
+                    // not sent, not an attempt
+                    respill(spilled, lines.subList(sent, end), attempt);
+                }
+                if (attempt + 1 < spec.getMaxAttempts()) {
+                    respill(spilled, retried, attempt + 1);
+                } else {
+                    rejected.addAll(retried);
+                    retried.clear();
+                }
+                deadLetter(spilled, rejected);
+
+                FileSystems.delete(Collections.singletonList(spilled));
+                drainedDocs.inc(drained);
+                retriedDocs.inc(retried.size() / 2);
+                failedDocs.inc(rejected.size() / 2);
+
+                logger.info("Drained {} spilled document(s) from {}, {} to retry, {} dead",
+                    drained, spilled, retried.size() / 2, rejected.size() / 2);
+            }
+
+            @Teardown
+            public void closeClient() throws IOException {
+                if (null != restClient) {
+                    restClient.close();
+                }
+            }
+
+            /** Sends of the documents of a spilled file so far, 0 for an original spill. */
+            static int attempt(String filename) {
+                final Matcher retry = RETRY_SUFFIX.matcher(filename);
+                return retry.find() && null != retry.group(2) ? Integer.parseInt(retry.group(2)) : 0;
+            }
+
+            /**
+             * Adds the action & document lines of the failed items to retried, 429, or rejected,
+             * anything else.
+             */
+            private void sendBatch(List<String> lines, List<String> retried, List<String> rejected)
+                    throws IOException {
+                StringBuilder bulkRequest = new StringBuilder();
+                for (String line : lines) {
+                    bulkRequest.append(line).append('\n');
+                }
+
+                Request request = new Request("POST",
+                    String.format("/%s/_bulk", spec.getConnectionConf().getIndex()));
+                request.setEntity(new NStringEntity(bulkRequest.toString(), ContentType.APPLICATION_JSON));
+
+                Response response = restClient.performRequest(request);
+                JsonNode result = parseResponse(new BufferedHttpEntity(response.getEntity()));
+                if (!result.path("errors").asBoolean()) {
+                    return;
+                }
+
+                // items are in the request order, one per action, e.g. { "index" : { "error" ... } }
+                JsonNode items = result.path("items");
+                for (int i = 0; i < items.size() && 2 * i + 1 < lines.size(); ++i) {
+                    Iterator<JsonNode> actions = items.get(i).elements();
+                    JsonNode action = actions.hasNext() ? actions.next() : null;
+                    JsonNode error = null == action ? null : action.get("error");
+                    if (null == error) {
+                        continue;
+                    }
+
+                    final boolean tooManyRequests = 429 == action.path("status").asInt();
+                    if (!tooManyRequests && rejected.isEmpty()) {
+                        logger.warn("Elasticsearch rejected a spilled document: {} ({})",
+                            error.path("reason").asText(), error.path("type").asText());
+                    }
+                    List<String> failed = tooManyRequests ? retried : rejected;
+                    failed.add(lines.get(2 * i));
+                    failed.add(lines.get(2 * i + 1));
+                }
+            }
+
+            private static void respill(ResourceId spilled, List<String> lines, int attempt)
+                    throws IOException {
+                if (lines.isEmpty()) {
+                    return;
+                }
+
+                final String filename = RETRY_SUFFIX.matcher(spilled.getFilename())
+                    .replaceFirst("-retry-" + attempt + "-" + System.currentTimeMillis()
+                        + SpillConf.SPILL_SUFFIX);
+                final ResourceId retry = spilled.getCurrentDirectory()
+                    .resolve(filename, StandardResolveOptions.RESOLVE_FILE);
+                write(retry, lines);
+
+                logger.warn("Spilled {} document(s) of {} again to {}",
+                    lines.size() / 2, spilled, retry);
+            }
+
+            private void deadLetter(ResourceId spilled, List<String> lines) throws IOException {
+                if (lines.isEmpty()) {
+                    return;
+                }
+
+                final ResourceId dead = FileSystems
+                    .matchNewResource(spec.getSpillConf().getSpillDir().get(), true)
+                    .resolve(SpillConf.DEAD_LETTER_DIR, StandardResolveOptions.RESOLVE_DIRECTORY)
+                    .resolve(spilled.getFilename() + SpillConf.DEAD_LETTER_SUFFIX,
+                        StandardResolveOptions.RESOLVE_FILE);
+                write(dead, lines);
+
+                logger.error("Gave up on {} document(s) of {}, written to {}",
+                    lines.size() / 2, spilled, dead);
+            }
+
+            private static void write(ResourceId resourceId, List<String> lines) throws IOException {
+                try (WritableByteChannel channel = FileSystems.create(resourceId, MimeTypes.TEXT)) {
+                    StringBuilder content = new StringBuilder();
+                    for (String line : lines) {
+                        content.append(line).append('\n');
+                    }
+                    channel.write(ByteBuffer.wrap(content.toString().getBytes(StandardCharsets.UTF_8)));
+                }
+            }
+        }
+    }
+
     static JsonNode parseResponse(HttpEntity responseEntity) throws IOException {
         return mapper.readValue(responseEntity.getContent(), JsonNode.class);
     }
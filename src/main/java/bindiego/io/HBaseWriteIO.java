@@ -0,0 +1,175 @@
+package bindiego.io;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.auto.value.AutoValue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseConfiguration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.ConnectionFactory;
+import org.apache.hadoop.hbase.client.Mutation;
+
+import static org.apache.beam.vendor.guava.v26_0_jre.com.google.common.base.Preconditions.checkArgument;
+import static org.apache.beam.vendor.guava.v26_0_jre.com.google.common.base.Preconditions.checkState;
+
+import org.apache.beam.sdk.annotations.Experimental;
+import org.apache.beam.sdk.annotations.Experimental.Kind;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PDone;
+
+/**
+ * Native HBase sink, for on-prem clusters or a local HBase, e.g.
+ *
+ *   HBaseWriteIO.write()
+ *       .withZookeeperQuorum("zk1,zk2,zk3:2181")
+ *       .withWriteBufferSize(8 * 1024 * 1024)
+ *       .writeTo("bttall")
+ *
+ * Mutations go through a buffered mutator, flushed at the end of each bundle. Same tables &
+ * column families as Bigtable, i.e. `make btinit` equivalent in the hbase shell.
+ *
+ * Metrics under the "hbase.<table id>" namespace, @see BufferedMutationWriter
+ */
+@Experimental(Kind.SOURCE_SINK)
+public class HBaseWriteIO {
+    private HBaseWriteIO() {} // disable new
+
+    public static Write write() {
+        return new AutoValue_HBaseWriteIO_Write.Builder()
+            .setConfiguration(new HashMap<String, String>())
+            .build();
+    }
+
+    @AutoValue
+    public abstract static class Write extends PTransform<PCollection<Mutation>, PDone>
+            implements MutationSink {
+
+        // hbase-site.xml style overrides, on top of whatever is on the classpath
+        abstract Map<String, String> getConfiguration();
+
+        @Nullable
+        abstract String getTableId();
+
+        @Nullable
+        abstract Long getWriteBufferSize();
+
+        abstract Builder builder();
+
+        @AutoValue.Builder
+        abstract static class Builder {
+            abstract Builder setConfiguration(Map<String, String> configuration);
+
+            abstract Builder setTableId(String tableId);
+
+            abstract Builder setWriteBufferSize(Long writeBufferSize);
+
+            abstract Write build();
+        }
+
+        public Write withConfiguration(String key, String value) {
+            checkArgument(key != null, "key can not be null");
+            checkArgument(value != null, "value can not be null");
+
+            Map<String, String> configuration = new HashMap<>(getConfiguration());
+            configuration.put(key, value);
+            return builder().setConfiguration(configuration).build();
+        }
+
+        // e.g. "localhost:2181" or "zk1,zk2,zk3:2181"
+        public Write withZookeeperQuorum(String quorum) {
+            return withConfiguration(HConstants.ZOOKEEPER_QUORUM, quorum);
+        }
+
+        // bytes buffered by the client before sending, i.e. the batch size
+        public Write withWriteBufferSize(long bytes) {
+            checkArgument(bytes > 0, "bytes must be > 0, but was %s", bytes);
+            return builder().setWriteBufferSize(bytes).build();
+        }
+
+        @Override
+        public Write writeTo(String tableId) {
+            checkArgument(tableId != null, "tableId can not be null");
+            return builder().setTableId(tableId).build();
+        }
+
+        public Configuration hbaseConf() {
+            Configuration conf = HBaseConfiguration.create();
+            for (Map.Entry<String, String> entry : getConfiguration().entrySet()) {
+                conf.set(entry.getKey(), entry.getValue());
+            }
+
+            return conf;
+        }
+
+        @Override
+        public PDone expand(PCollection<Mutation> input) {
+            checkState(null != getTableId(), "writeTo() is required");
+
+            input.apply("Buffered write " + getTableId(), ParDo.of(new BufferedWriteFn(this)));
+            return PDone.in(input.getPipeline());
+        }
+    }
+
+    static class BufferedWriteFn extends DoFn<Mutation, Void> {
+        private final Write spec;
+
+        private transient Connection connection;
+        private transient BufferedMutationWriter writer;
+
+        BufferedWriteFn(Write spec) {
+            this.spec = spec;
+        }
+
+        @Setup
+        public void setup() throws IOException {
+            connection = ConnectionFactory.createConnection(spec.hbaseConf());
+        }
+
+        @StartBundle
+        public void startBundle() throws IOException {
+            if (null == writer) {
+                BufferedMutatorParams params =
+                    new BufferedMutatorParams(TableName.valueOf(spec.getTableId()));
+                if (null != spec.getWriteBufferSize()) {
+                    params.writeBufferSize(spec.getWriteBufferSize());
+                }
+
+                writer = new BufferedMutationWriter("hbase." + spec.getTableId(), connection, params);
+            }
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext ctx) throws IOException {
+            writer.write(ctx.element());
+        }
+
+        @FinishBundle
+        public void finishBundle() throws IOException {
+            writer.flush();
+        }
+
+        @Teardown
+        public void teardown() throws IOException {
+            if (null != writer) {
+                writer.close();
+                writer = null;
+            }
+
+            if (null != connection) {
+                connection.close();
+                connection = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package bindiego.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.avro.generic.GenericRecord;
+
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import org.apache.beam.sdk.transforms.SerializableFunction;
+
+/**
+ * Hive style partition of a record, i.e. the relative directory of its file, for
+ * FileIO.writeDynamic() & WindowedFilenamePolicy#asFileNaming(String),
+ *
+ *   HivePartitions.of(Arrays.asList("dt", "hr", "dim1"), "event_ts")
+ *       -> dt=2021-07-01/hr=12/dim1=dim42
+ *
+ *   - dt: day of the timestamp field, epoch millis, UTC
+ *   - hr: hour of the timestamp field, UTC
+ *   - anything else: the value of that field
+ *
+ * Values are escaped the way Hive does, empty or null ones go to __HIVE_DEFAULT_PARTITION__, so
+ * BigQuery external tables, Spark, Presto & co. prune the partitions of a query on the same keys.
+ *
+ * NOTE: every partition is a writer per shard & window pane, keep to low cardinality fields.
+ */
+public class HivePartitions implements SerializableFunction<GenericRecord, String> {
+
+    public static final String DAY = "dt";
+    public static final String HOUR = "hr";
+    public static final String DEFAULT_PARTITION = "__HIVE_DEFAULT_PARTITION__";
+
+    private static final DateTimeFormatter DAY_FORMAT =
+        DateTimeFormat.forPattern("yyyy-MM-dd").withZoneUTC();
+    private static final DateTimeFormatter HOUR_FORMAT =
+        DateTimeFormat.forPattern("HH").withZoneUTC();
+
+    private final ArrayList<String> keys;
+    private final String tsField;
+
+    private HivePartitions(List<String> keys, String tsField) {
+        this.keys = new ArrayList<>(keys);
+        this.tsField = tsField;
+    }
+
+    /**
+     * @param keys partition keys from the top directory down, dt, hr or field names
+     * @param tsField epoch millis field of dt & hr
+     */
+    public static HivePartitions of(List<String> keys, String tsField) {
+        checkArgument(!keys.isEmpty(), "no partition keys");
+        return new HivePartitions(keys, tsField);
+    }
+
+    @Override
+    public String apply(GenericRecord record) {
+        StringBuilder partition = new StringBuilder();
+
+        for (String key : keys) {
+            if (partition.length() > 0) {
+                partition.append('/');
+            }
+            partition.append(escape(key)).append('=');
+
+            switch (key) {
+                case DAY:
+                    partition.append(DAY_FORMAT.print((Long) record.get(tsField)));
+                    break;
+                case HOUR:
+                    partition.append(HOUR_FORMAT.print((Long) record.get(tsField)));
+                    break;
+                default:
+                    final Object value = record.get(key);
+                    partition.append(null == value || value.toString().isEmpty()
+                        ? DEFAULT_PARTITION : escape(value.toString()));
+            }
+        }
+
+        return partition.toString();
+    }
+
+    // Hive's FileUtils#escapePathName, %XX for path separators, control & glob chars
+    static String escape(String value) {
+        StringBuilder escaped = null;
+
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+
+            if (c < 0x20 || c == 0x7F || "\"#%'*/:=?\\{[]^".indexOf(c) >= 0) {
+                if (null == escaped) {
+                    escaped = new StringBuilder(value.length() + 8).append(value, 0, i);
+                }
+                escaped.append('%').append(String.format("%02X", (int) c));
+            } else if (null != escaped) {
+                escaped.append(c);
+            }
+        }
+
+        return null == escaped ? value : escaped.toString();
+    }
+}
@@ -0,0 +1,21 @@
+package bindiego.io;
+
+import java.io.Serializable;
+
+import org.apache.hadoop.hbase.client.Mutation;
+
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PDone;
+
+/**
+ * Where the realtime analytics tables (tall, wide) go, so the same pipeline runs against
+ * Bigtable or a native HBase cluster.
+ *
+ * @see BigtableWriteIO
+ * @see HBaseWriteIO
+ */
+public interface MutationSink extends Serializable {
+    /** Writes the mutations into the table of this sink. */
+    PTransform<PCollection<Mutation>, PDone> writeTo(String tableId);
+}
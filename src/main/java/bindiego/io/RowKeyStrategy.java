@@ -0,0 +1,170 @@
+package bindiego.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * Salted row keys to spread the writes of a hot dim1, or of always increasing window
+ * timestamps, across tablets instead of hammering the tail of one.
+ *
+ * A salted key is <bucket, 1 byte><row key, @see BigtableSchema>, where the bucket is a hash
+ * of the whole unsalted key mod N. The same dim1 lands in all N buckets, while a point read
+ * of a known key can still compute its bucket. Prefix reads fan out to every bucket, use
+ * {@link #scan(Table, byte[], int)} to get them back merged in the unsalted key order.
+ *
+ * NOTE: the number of buckets is part of the key layout, do NOT change it for an existing table.
+ */
+public class RowKeyStrategy implements Serializable {
+    // 1 byte for the bucket
+    public static final int MAX_BUCKETS = 256;
+
+    private static final HashFunction HASH = Hashing.murmur3_32();
+
+    private final int buckets;
+
+    private RowKeyStrategy(int buckets) {
+        this.buckets = buckets;
+    }
+
+    /** Plain row keys, no salt. */
+    public static RowKeyStrategy none() {
+        return new RowKeyStrategy(1);
+    }
+
+    /** @param buckets 1 for no salt, up to 256 */
+    public static RowKeyStrategy saltBuckets(int buckets) {
+        checkArgument(buckets > 0 && buckets <= MAX_BUCKETS,
+            "buckets must be in [1, %s], but was %s", MAX_BUCKETS, buckets);
+        return new RowKeyStrategy(buckets);
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public boolean isSalted() {
+        return buckets > 1;
+    }
+
+    public byte bucketOf(byte[] rowKey) {
+        return (byte) ((HASH.hashBytes(rowKey).asInt() & Integer.MAX_VALUE) % buckets);
+    }
+
+    /** The key to write / get, i.e. salted if there are buckets. */
+    public byte[] apply(byte[] rowKey) {
+        if (!isSalted()) {
+            return rowKey;
+        }
+
+        byte[] salted = new byte[rowKey.length + 1];
+        salted[0] = bucketOf(rowKey);
+        System.arraycopy(rowKey, 0, salted, 1, rowKey.length);
+
+        return salted;
+    }
+
+    /** The row key without salt, for the BigtableSchema decode helpers. */
+    public byte[] strip(byte[] saltedKey) {
+        return isSalted() ? Arrays.copyOfRange(saltedKey, 1, saltedKey.length) : saltedKey;
+    }
+
+    /** One scan per bucket for the rows start with the prefix, e.g. BigtableSchema.rowKeyPrefix(dim1). */
+    public List<Scan> prefixScans(byte[] prefix) {
+        List<Scan> scans = new ArrayList<>(buckets);
+        if (!isSalted()) {
+            scans.add(new Scan().setRowPrefixFilter(prefix));
+            return scans;
+        }
+
+        for (int bucket = 0; bucket < buckets; ++bucket) {
+            byte[] saltedPrefix = new byte[prefix.length + 1];
+            saltedPrefix[0] = (byte) bucket;
+            System.arraycopy(prefix, 0, saltedPrefix, 1, prefix.length);
+
+            scans.add(new Scan().setRowPrefixFilter(saltedPrefix));
+        }
+
+        return scans;
+    }
+
+    /**
+     * Fan out the prefix scan to all the buckets and merge, results come in the same order as
+     * an unsalted table, e.g. latest first for a dim1 of the tall table.
+     *
+     * @param limit max number of results, <= 0 for all
+     */
+    public List<Result> scan(Table table, byte[] prefix, int limit) throws IOException {
+        List<ResultScanner> scanners = new ArrayList<>(buckets);
+        PriorityQueue<BucketHead> heads = new PriorityQueue<>();
+        List<Result> results = new ArrayList<>();
+
+        try {
+            for (Scan scan : prefixScans(prefix)) {
+                ResultScanner scanner = table.getScanner(scan);
+                scanners.add(scanner);
+
+                BucketHead head = new BucketHead(scanner.iterator());
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+
+            while (!heads.isEmpty() && (limit <= 0 || results.size() < limit)) {
+                BucketHead head = heads.poll();
+                results.add(head.current);
+
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+        } finally {
+            for (ResultScanner scanner : scanners) {
+                scanner.close();
+            }
+        }
+
+        return results;
+    }
+
+    // next result of a bucket, ordered by the unsalted key
+    private class BucketHead implements Comparable<BucketHead> {
+        final Iterator<Result> results;
+        Result current;
+        byte[] key;
+
+        BucketHead(Iterator<Result> results) {
+            this.results = results;
+        }
+
+        boolean advance() {
+            if (!results.hasNext()) {
+                return false;
+            }
+
+            current = results.next();
+            key = strip(current.getRow());
+            return true;
+        }
+
+        @Override
+        public int compareTo(BucketHead other) {
+            return Bytes.compareTo(key, other.key);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package bindiego.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import org.joda.time.Duration;
+
+import org.apache.beam.sdk.transforms.Combine;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.MapElements;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.transforms.Sum;
+import org.apache.beam.sdk.transforms.View;
+import org.apache.beam.sdk.transforms.windowing.AfterPane;
+import org.apache.beam.sdk.transforms.windowing.AfterWatermark;
+import org.apache.beam.sdk.transforms.windowing.FixedWindows;
+import org.apache.beam.sdk.transforms.windowing.Repeatedly;
+import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.transforms.windowing.WindowFn;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionView;
+import org.apache.beam.sdk.values.TypeDescriptors;
+import org.apache.beam.sdk.values.WindowingStrategy;
+
+/**
+ * Number of shards of a windowed file write from the throughput, i.e. one file per target size,
+ * so a busy window rolls over to several files written in parallel & a quiet one stays a single
+ * file, instead of a fixed number of shards for all the windows.
+ *
+ *   FileIO.<String>write()
+ *       .via(TextIO.sink())
+ *       .withSharding(SizeBasedSharding.of(SizeBasedSharding.utf8Size(), 128L << 20, 100))
+ *
+ * A window is sized from the bytes of the window before it, counted once at its end, so the
+ * side input is ready as soon as a window starts and its early panes aren't held back until
+ * the watermark passes it. A window after an empty one is a single shard. The bytes are
+ * estimated before compression.
+ *
+ * The number of shards applies to every pane of the window. With early firings, tell the
+ * expected panes per window, @see #withPanesPerWindow(int), the bytes of a window are then
+ * spread over them, or each pane would write as many files as the whole window needs.
+ * Either way the file size is an estimate, a pane smaller than the average writes smaller files.
+ *
+ * NOTE: fixed windows only, the ones of the input.
+ */
+public class SizeBasedSharding<T> extends PTransform<PCollection<T>, PCollectionView<Integer>> {
+    private final SerializableFunction<T, Long> sizeFn;
+    private final long targetBytes;
+    private final int maxShards;
+    private final int panesPerWindow;
+
+    private SizeBasedSharding(SerializableFunction<T, Long> sizeFn, long targetBytes, int maxShards,
+            int panesPerWindow) {
+        this.sizeFn = sizeFn;
+        this.targetBytes = targetBytes;
+        this.maxShards = maxShards;
+        this.panesPerWindow = panesPerWindow;
+    }
+
+    /**
+     * @param sizeFn estimated bytes of an element in the file
+     * @param targetBytes file size to roll over at
+     * @param maxShards upper bound of the files per window pane
+     */
+    public static <T> SizeBasedSharding<T> of(SerializableFunction<T, Long> sizeFn, long targetBytes,
+            int maxShards) {
+        checkArgument(targetBytes > 0, "target size must be > 0, but was %s", targetBytes);
+        checkArgument(maxShards > 0, "max shards must be > 0, but was %s", maxShards);
+        return new SizeBasedSharding<>(sizeFn, targetBytes, maxShards, 1);
+    }
+
+    /** @param panes expected panes per window, e.g. the early ones + the on-time one */
+    public SizeBasedSharding<T> withPanesPerWindow(int panes) {
+        checkArgument(panes > 0, "panes per window must be > 0, but was %s", panes);
+        return new SizeBasedSharding<>(sizeFn, targetBytes, maxShards, panes);
+    }
+
+    /** Text lines, i.e. the chars + the newline, exact for ASCII. */
+    public static SerializableFunction<String, Long> utf8Size() {
+        return line -> line.length() + 1L;
+    }
+
+    /** Binary encoded Avro records, roughly, from the values of the top level fields. */
+    public static SerializableFunction<GenericRecord, Long> avroSize() {
+        return record -> {
+            long bytes = 0L;
+
+            List<Schema.Field> fields = record.getSchema().getFields();
+            for (int i = 0; i < fields.size(); ++i) {
+                final Object value = record.get(i);
+
+                if (value instanceof CharSequence) {
+                    bytes += ((CharSequence) value).length() + 1;
+                } else if (value instanceof ByteBuffer) {
+                    bytes += ((ByteBuffer) value).remaining() + 1;
+                } else if (value instanceof Boolean) {
+                    bytes += 1;
+                } else if (value instanceof Float) {
+                    bytes += 4;
+                } else if (value instanceof Double) {
+                    bytes += 8;
+                } else if (null != value) {
+                    // varint, i.e. int & long, millis timestamps are 6 bytes
+                    bytes += 6;
+                }
+            }
+
+            return bytes;
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public PCollectionView<Integer> expand(PCollection<T> input) {
+        final WindowingStrategy<?, ?> windowing = input.getWindowingStrategy();
+        checkArgument(windowing.getWindowFn() instanceof FixedWindows,
+            "size based sharding needs fixed windows, but got %s", windowing.getWindowFn());
+
+        // bytes per file of a window, i.e. of all its panes
+        final long target = targetBytes * panesPerWindow;
+        final int max = maxShards;
+
+        // a window more than the input lateness, its last panes fire as the input window expires
+        final Duration retention = windowing.getAllowedLateness()
+            .plus(((FixedWindows) windowing.getWindowFn()).getSize());
+
+        return input
+            .apply("Estimate bytes", MapElements.into(TypeDescriptors.longs()).via(sizeFn))
+            // one count per window, i.e. one value per window of the view
+            .apply("Count at the end of the window", Window.<Long>configure()
+                .triggering(AfterWatermark.pastEndOfWindow())
+                .withAllowedLateness(Duration.ZERO)
+                .discardingFiredPanes())
+            .apply("Bytes per window", Combine.globally(Sum.ofLongs()).withoutDefaults())
+            .apply("Shards per window", MapElements.into(TypeDescriptors.integers())
+                .via(bytes -> (int) Math.max(1L, Math.min(max, (bytes + target - 1) / target))))
+            .apply("Size the next window", ParDo.of(new NextWindowFn()))
+            .apply("Into the next window",
+                Window.<Integer>into((WindowFn<Object, ?>) windowing.getWindowFn())
+                    .triggering(Repeatedly.forever(AfterPane.elementCountAtLeast(1)))
+                    .withAllowedLateness(retention)
+                    .discardingFiredPanes())
+            .apply(View.<Integer>asSingleton().withDefaultValue(1));
+    }
+
+    // counts are timestamped at the end of their window, 1ms later is the next fixed window
+    static class NextWindowFn extends DoFn<Integer, Integer> {
+        @ProcessElement
+        public void processElement(ProcessContext ctx) {
+            ctx.outputWithTimestamp(ctx.element(), ctx.timestamp().plus(1L));
+        }
+    }
+}
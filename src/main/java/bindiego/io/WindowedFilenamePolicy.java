@@ -1,6 +1,9 @@
 package bindiego.io;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
 import org.apache.beam.sdk.io.DefaultFilenamePolicy;
+import org.apache.beam.sdk.io.FileIO;
 import org.apache.beam.sdk.io.FileBasedSink.FilenamePolicy;
 import org.apache.beam.sdk.io.FileBasedSink.OutputFileHints;
 import org.apache.beam.sdk.io.FileSystems;
@@ -30,6 +33,8 @@ public class WindowedFilenamePolicy extends FilenamePolicy {
   private static final DateTimeFormatter MONTH = DateTimeFormat.forPattern("MM");
   private static final DateTimeFormatter DAY = DateTimeFormat.forPattern("dd");
   private static final DateTimeFormatter HOUR = DateTimeFormat.forPattern("HH");
+  /** Windows with a resolved output directory, i.e. the open ones & the late panes of a few. */
+  private static final int MAX_CACHED_WINDOWS = 64;
   /** The filename baseFile. */
   private final ValueProvider<String> outputDirectory;
   /** The prefix of the file to output. */
@@ -38,6 +43,8 @@ public class WindowedFilenamePolicy extends FilenamePolicy {
   private final ValueProvider<String> suffix;
   /** The shard template used during file formatting. */
   private final ValueProvider<String> shardTemplate;
+  /** Output directory per window, resolved once instead of for every shard & pane. */
+  private transient Map<BoundedWindow, ResourceId> directories;
 
   /**
    * Constructs a new {@link WindowedFilenamePolicy} with the supplied baseFile used for output
@@ -90,10 +97,25 @@ public class WindowedFilenamePolicy extends FilenamePolicy {
       BoundedWindow window,
       PaneInfo paneInfo,
       OutputFileHints outputFileHints) {
+    return windowedFilename(
+        resolveWithDateTemplates(outputDirectory, window),
+        shardNumber,
+        numShards,
+        window,
+        paneInfo,
+        outputFileHints);
+  }
+
+  private ResourceId windowedFilename(
+      ResourceId directory,
+      int shardNumber,
+      int numShards,
+      BoundedWindow window,
+      PaneInfo paneInfo,
+      OutputFileHints outputFileHints) {
 
     ResourceId outputFile =
-        resolveWithDateTemplates(outputDirectory, window)
-            .resolve(outputFilenamePrefix.get(), StandardResolveOptions.RESOLVE_FILE);
+        directory.resolve(outputFilenamePrefix.get(), StandardResolveOptions.RESOLVE_FILE);
 
     DefaultFilenamePolicy policy =
         DefaultFilenamePolicy.fromStandardParameters(
@@ -104,6 +126,48 @@ public class WindowedFilenamePolicy extends FilenamePolicy {
     return result;
   }
 
+  /**
+   * The same windowed filenames for the {@link FileIO} sinks, e.g. ParquetIO. They are complete
+   * paths, so use it without {@link FileIO.Write#to(String)}.
+   */
+  public FileIO.Write.FileNaming asFileNaming() {
+    return asFileNaming(null);
+  }
+
+  /**
+   * The windowed filenames of a partition, i.e. in a sub directory of the output directory, for
+   * {@link FileIO#writeDynamic()}.
+   *
+   * @param partition The relative directory of the partition, e.g. dt=2017-01-08/hr=13, or null.
+   */
+  public FileIO.Write.FileNaming asFileNaming(String partition) {
+    return (window, paneInfo, numShards, shardIndex, compression) -> {
+      ResourceId directory = resolveWithDateTemplates(outputDirectory, window);
+      if (null != partition) {
+        directory = directory.resolve(partition, StandardResolveOptions.RESOLVE_DIRECTORY);
+      }
+
+      return windowedFilename(
+              directory,
+              shardIndex,
+              numShards,
+              window,
+              paneInfo,
+              new OutputFileHints() {
+                @Override
+                public String getMimeType() {
+                  return null;
+                }
+
+                @Override
+                public String getSuggestedFilenameSuffix() {
+                  return compression.getSuggestedSuffix();
+                }
+              })
+          .toString();
+    };
+  }
+
   /**
    * Unwindowed writes are unsupported by this filename policy so an {@link
    * UnsupportedOperationException} will be thrown if invoked.
@@ -119,24 +183,41 @@ public class WindowedFilenamePolicy extends FilenamePolicy {
 
   /**
    * Resolves any date variables which exist in the output directory path. This allows for the
-   * dynamically changing of the output location based on the window end time.
+   * dynamically changing of the output location based on the window end time. The directory is
+   * resolved once per window, all the shards and panes of the window share it.
    *
    * @return The new output directory with all variables resolved.
    */
   private ResourceId resolveWithDateTemplates(
       ValueProvider<String> outputDirectoryStr, BoundedWindow window) {
-    ResourceId outputDirectory = FileSystems.matchNewResource(outputDirectoryStr.get(), true);
-
-    if (window instanceof IntervalWindow) {
-      IntervalWindow intervalWindow = (IntervalWindow) window;
-      DateTime time = intervalWindow.end().toDateTime();
-      String outputPath = outputDirectory.toString();
-      outputPath = outputPath.replace("YYYY", YEAR.print(time));
-      outputPath = outputPath.replace("MM", MONTH.print(time));
-      outputPath = outputPath.replace("DD", DAY.print(time));
-      outputPath = outputPath.replace("HH", HOUR.print(time));
-      outputDirectory = FileSystems.matchNewResource(outputPath, true);
+    synchronized (this) {
+      if (null == directories) {
+        directories =
+            new LinkedHashMap<BoundedWindow, ResourceId>(16, 0.75f, true) {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<BoundedWindow, ResourceId> eldest) {
+                return size() > MAX_CACHED_WINDOWS;
+              }
+            };
+      }
+
+      ResourceId outputDirectory = directories.get(window);
+      if (null == outputDirectory) {
+        String outputPath = outputDirectoryStr.get();
+
+        if (window instanceof IntervalWindow) {
+          IntervalWindow intervalWindow = (IntervalWindow) window;
+          DateTime time = intervalWindow.end().toDateTime();
+          outputPath = outputPath.replace("YYYY", YEAR.print(time));
+          outputPath = outputPath.replace("MM", MONTH.print(time));
+          outputPath = outputPath.replace("DD", DAY.print(time));
+          outputPath = outputPath.replace("HH", HOUR.print(time));
+        }
+
+        outputDirectory = FileSystems.matchNewResource(outputPath, true);
+        directories.put(window, outputDirectory);
+      }
+      return outputDirectory;
     }
-    return outputDirectory;
   }
 }
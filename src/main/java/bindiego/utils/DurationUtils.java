@@ -21,7 +21,8 @@ public class DurationUtils {
    *
    * <p>Formats Ns - Seconds. Example: 5s<br>
    * Nm - Minutes. Example: 13m<br>
-   * Nh - Hours. Example: 2h
+   * Nh - Hours. Example: 2h<br>
+   * Nd - Days. Example: 1d
    *
    * <pre>
    * parseDuration(null) = NullPointerException()
@@ -29,6 +30,7 @@ public class DurationUtils {
    * parseDuration("2s") = Duration.standardSeconds(2)
    * parseDuration("5m") = Duration.standardMinutes(5)
    * parseDuration("3h") = Duration.standardHours(3)
+   * parseDuration("1d") = Duration.standardDays(1)
    * </pre>
    *
    * @param value The period value to parse.
@@ -45,6 +47,8 @@ public class DurationUtils {
             .appendSuffix("m")
             .appendHours()
             .appendSuffix("h")
+            .appendDays()
+            .appendSuffix("d")
             .toParser();
 
     MutablePeriod period = new MutablePeriod();
@@ -0,0 +1,116 @@
+package bindiego.utils;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.regex.Pattern;
+
+import org.joda.time.Duration;
+
+import org.apache.beam.sdk.coders.BooleanCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timer;
+import org.apache.beam.sdk.state.TimerSpec;
+import org.apache.beam.sdk.state.TimerSpecs;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.transforms.WithKeys;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+
+/**
+ * Drops the elements whose id was already seen within the horizon, e.g. the producer retries
+ * republishing the same "thread_id,seq" under a new pubsub message id, which the pubsub id
+ * attribute dedup doesn't catch.
+ *
+ * A rolling set of the ids seen, one state cell per id, expired by a processing time timer
+ * horizon after the first occurrence, so memory is bounded by the ids seen in a horizon.
+ * Exact, i.e. unlike a Bloom filter no distinct element is ever dropped.
+ *
+ * Meant for the global window, before any windowing, counts "dedup_unique" & "dedup_duplicates".
+ *
+ *   PCollection<String> unique = csvLines.apply(StreamingDedup.of(
+ *       line -> line.split(",")[1] + "," + line.split(",")[3], Duration.standardMinutes(10)));
+ */
+public class StreamingDedup extends PTransform<PCollection<String>, PCollection<String>> {
+    private final SerializableFunction<String, String> idFn;
+    private final Duration horizon;
+
+    private StreamingDedup(SerializableFunction<String, String> idFn, Duration horizon) {
+        this.idFn = idFn;
+        this.horizon = horizon;
+    }
+
+    /** @param horizon how long an id is remembered, from its first occurrence */
+    public static StreamingDedup of(SerializableFunction<String, String> idFn, Duration horizon) {
+        checkArgument(horizon.getMillis() > 0, "horizon must be > 0, but was %s", horizon);
+        return new StreamingDedup(idFn, horizon);
+    }
+
+    /** Id of the delimited columns, e.g. 1 & 3 for "thread_id,seq". */
+    public static SerializableFunction<String, String> csvColumns(String delimiter, int... columns) {
+        return line -> {
+            String[] values = line.split(Pattern.quote(delimiter));
+            StringBuilder id = new StringBuilder();
+            for (int column : columns) {
+                id.append(values[column]).append(delimiter);
+            }
+
+            return id.toString();
+        };
+    }
+
+    @Override
+    public PCollection<String> expand(PCollection<String> input) {
+        return input
+            .apply("Key by id", WithKeys.of(idFn))
+            .setCoder(KvCoder.of(StringUtf8Coder.of(), StringUtf8Coder.of()))
+            .apply("Drop the ids seen", ParDo.of(new DedupFn(horizon)));
+    }
+
+    static class DedupFn extends DoFn<KV<String, String>, String> {
+        private final Duration horizon;
+
+        private final Counter unique = Metrics.counter(StreamingDedup.class, "dedup_unique");
+        private final Counter duplicates = Metrics.counter(StreamingDedup.class, "dedup_duplicates");
+
+        @StateId("seen")
+        private final StateSpec<ValueState<Boolean>> seenSpec = StateSpecs.value(BooleanCoder.of());
+
+        @TimerId("expiry")
+        private final TimerSpec expirySpec = TimerSpecs.timer(TimeDomain.PROCESSING_TIME);
+
+        DedupFn(Duration horizon) {
+            this.horizon = horizon;
+        }
+
+        @ProcessElement
+        public void processElement(ProcessContext ctx,
+                @StateId("seen") ValueState<Boolean> seen,
+                @TimerId("expiry") Timer expiry) {
+            if (null != seen.read()) {
+                duplicates.inc();
+                return;
+            }
+
+            seen.write(true);
+            expiry.offset(horizon).setRelative();
+
+            unique.inc();
+            ctx.output(ctx.element().getValue());
+        }
+
+        @OnTimer("expiry")
+        public void onExpiry(@StateId("seen") ValueState<Boolean> seen) {
+            seen.clear();
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package bindiego.utils;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+
+/**
+ * Per window & pane values, e.g. the encoded window/pane metadata, computed once and reused
+ * by all the elements of the same pane instead of per element.
+ *
+ * The last window & pane are checked by identity first, runners usually hand the same
+ * instances to the consecutive elements of a pane, then by equality.
+ *
+ * NOT thread safe, meant to be a DoFn field, clear() it in @StartBundle to keep it small, e.g.
+ *
+ *   @Setup
+ *   public void setup() {
+ *       cache = new WindowInfoCache<>((window, pane) -> window + "," + pane);
+ *   }
+ *
+ *   @StartBundle
+ *   public void startBundle() {
+ *       cache.clear();
+ *   }
+ */
+public class WindowInfoCache<V> {
+    private final BiFunction<BoundedWindow, PaneInfo, V> loader;
+    private final Map<Key, V> values = new HashMap<>();
+
+    private BoundedWindow lastWindow;
+    private PaneInfo lastPane;
+    private V lastValue;
+
+    public WindowInfoCache(BiFunction<BoundedWindow, PaneInfo, V> loader) {
+        this.loader = loader;
+    }
+
+    public V get(BoundedWindow window, PaneInfo pane) {
+        if (window == lastWindow && pane == lastPane) {
+            return lastValue;
+        }
+
+        Key key = new Key(window, pane);
+        V value = values.get(key);
+        if (null == value) {
+            value = loader.apply(window, pane);
+            values.put(key, value);
+        }
+
+        lastWindow = window;
+        lastPane = pane;
+        lastValue = value;
+
+        return value;
+    }
+
+    public void clear() {
+        values.clear();
+        lastWindow = null;
+        lastPane = null;
+        lastValue = null;
+    }
+
+    private static final class Key {
+        final BoundedWindow window;
+        final PaneInfo pane;
+
+        Key(BoundedWindow window, PaneInfo pane) {
+            this.window = window;
+            this.pane = pane;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+
+            Key other = (Key) obj;
+            return window.equals(other.window) && pane.equals(other.pane);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * window.hashCode() + pane.hashCode();
+        }
+    }
+}
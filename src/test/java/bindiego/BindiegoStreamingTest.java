@@ -0,0 +1,76 @@
+package bindiego;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.joda.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Construction time checks of {@link BindiegoStreaming} with its default options. */
+@RunWith(JUnit4.class)
+public class BindiegoStreamingTest {
+
+  private static BindiegoStreamingOptions options(String... args) {
+    return PipelineOptionsFactory.fromArgs(args).as(BindiegoStreamingOptions.class);
+  }
+
+  /** One JVM for the job & the tools, e.g. tests or a shared launcher. */
+  @Test
+  public void testOptionsRegisterTogether() {
+    PipelineOptionsFactory.register(BindiegoStreamingOptions.class);
+    PipelineOptionsFactory.register(BindiegoBigQueryBenchmark.Options.class);
+    PipelineOptionsFactory.register(BindiegoCompaction.Options.class);
+    PipelineOptionsFactory.register(BindiegoSinkBenchmark.Options.class);
+
+    options().as(BindiegoBigQueryBenchmark.Options.class);
+    options().as(BindiegoCompaction.Options.class);
+    options().as(BindiegoSinkBenchmark.Options.class);
+  }
+
+  @Test
+  public void testDefaultLateFiringCount() {
+    assertEquals(100, options().getLateFiringCount().intValue());
+  }
+
+  /** 5m windows with an early pane every minute, then the on-time one. */
+  @Test
+  public void testHealthPanesPerWindow() {
+    assertEquals(6, BindiegoStreaming.healthPanesPerWindow(options()));
+    assertEquals(
+        2, BindiegoStreaming.healthPanesPerWindow(options("--windowSize=6s", "--earlyFiringPeriod=1m")));
+  }
+
+  /** The default --btRollups cascade over the default window. */
+  @Test
+  public void testDefaultRollups() {
+    LinkedHashMap<String, Duration> rollups =
+        BindiegoStreaming.rollups(options("--btTableIdRollup=btrollup"));
+
+    assertEquals(Arrays.asList("1h", "1d"), Arrays.asList(rollups.keySet().toArray()));
+    assertEquals(
+        Arrays.asList(Duration.standardHours(1), Duration.standardDays(1)),
+        Arrays.asList(rollups.values().toArray()));
+  }
+
+  /** The families of make btrollup over the seconds windows of make df. */
+  @Test
+  public void testMakefileRollups() {
+    LinkedHashMap<String, Duration> rollups =
+        BindiegoStreaming.rollups(
+            options("--btTableIdRollup=btrollup", "--windowSize=6s", "--btRollups=1m,1h,1d"));
+
+    assertEquals(
+        Arrays.asList(
+            Duration.standardMinutes(1), Duration.standardHours(1), Duration.standardDays(1)),
+        Arrays.asList(rollups.values().toArray()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRollupNotAMultiple() {
+    BindiegoStreaming.rollups(options("--windowSize=7s", "--btRollups=1m"));
+  }
+}